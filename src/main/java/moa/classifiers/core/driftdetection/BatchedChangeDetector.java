@@ -0,0 +1,124 @@
+/*
+ *    BatchedChangeDetector.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.core.driftdetection;
+
+import com.github.javacliparser.IntOption;
+
+import moa.core.ObjectRepository;
+import moa.options.ClassOption;
+import moa.tasks.TaskMonitor;
+
+
+/*
+ * Buffers the inputs of a change detector and hands them over every
+ * checkPeriod inputs, in order. Change, warning and estimation are the
+ * ones of the detector after the last hand over.
+ *
+ * Detection delay: a change the detector reports on input t is reported
+ * here on input t+checkPeriod-1 at the latest (end of its batch).
+ *
+ * CompactADWINChangeDetector takes the whole batch with one cut check:
+ * periods dividing 32 (ADWIN clock) give the same changes as unbatched,
+ * longer ones check for cuts once per batch. Only this detector saves
+ * work: other detectors get the inputs one by one, later, and a change
+ * or warning on any input of the batch is reported at its end.
+ *
+ * Example (ElasticRandomForest):
+ *  -x (BatchedChangeDetector -k 128 -d (CompactADWINChangeDetector -a 1.0E-5))
+ */
+public class BatchedChangeDetector extends AbstractChangeDetector {
+
+    private static final long serialVersionUID = 1L;
+
+    public ClassOption detectorOption = new ClassOption("detector", 'd',
+							"Change detector fed in batches.",
+							ChangeDetector.class,
+							"CompactADWINChangeDetector -a 1.0E-5");
+
+    public IntOption checkPeriodOption = new IntOption("checkPeriod", 'k',
+						       "Inputs per batch (maximum detection delay + 1). Saves work on CompactADWINChangeDetector only.",
+						       32, 1, Integer.MAX_VALUE);
+
+    protected ChangeDetector detector;
+    protected double[] buffer;
+    protected int buffered;
+    // change/warning on any input of the current batch
+    protected boolean pendingChange;
+    protected boolean pendingWarning;
+
+    @Override
+    public void input(double inputValue) {
+	if (this.detector == null) {
+	    resetLearning();
+	}
+
+	this.isChangeDetected = false;
+	this.isWarningZone = false;
+
+	this.buffer[this.buffered++] = inputValue;
+	if (this.buffered < this.buffer.length) {
+	    return;
+	}
+
+	if (this.detector instanceof CompactADWINChangeDetector) {
+	    ((CompactADWINChangeDetector) this.detector).input(this.buffer, this.buffered);
+	    this.pendingChange = this.detector.getChange();
+	    this.pendingWarning = this.detector.getWarningZone();
+	} else {
+	    // detectors like DDM clear the flags on the next input
+	    for (int i = 0; i < this.buffered; i++) {
+		this.detector.input(this.buffer[i]);
+		this.pendingChange |= this.detector.getChange();
+		this.pendingWarning |= this.detector.getWarningZone();
+	    }
+	}
+	this.buffered = 0;
+
+	this.isChangeDetected = this.pendingChange;
+	this.isWarningZone = this.pendingWarning;
+	this.pendingChange = false;
+	this.pendingWarning = false;
+	this.estimation = this.detector.getEstimation();
+	this.delay = this.detector.getDelay();
+    }
+
+    @Override
+    public void resetLearning() {
+	ChangeDetector prepared = (ChangeDetector) getPreparedClassOption(this.detectorOption);
+	if (prepared == null) {
+	    prepareForUse();
+	    prepared = (ChangeDetector) getPreparedClassOption(this.detectorOption);
+	}
+	this.detector = prepared.copy();
+	this.detector.resetLearning();
+	this.buffer = new double[this.checkPeriodOption.getValue()];
+	this.buffered = 0;
+	this.pendingChange = false;
+	this.pendingWarning = false;
+	super.resetLearning();
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+    }
+
+    @Override
+    protected void prepareForUseImpl(TaskMonitor monitor,
+				     ObjectRepository repository) {
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ *    CompactADWIN.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.core.driftdetection;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/*
+ * ADWIN with the bucket rows in three primitive arrays instead of a
+ * linked list of row objects (two arrays each).
+ *
+ * Row r holds up to MAXBUCKETS+1 buckets of 2^r elements, oldest first,
+ * at [r*s_ROW, r*s_ROW+rowSize[r]). Arrays double when a row is added,
+ * so after the window reaches its size nothing is allocated.
+ *
+ * Same arithmetic, in the same order, as moa's ADWIN: same estimation,
+ * variance and change decisions for the same input.
+ *
+ * setInputs adds a batch and checks for cuts once, at its end, if the
+ * batch crossed a multiple of s_CLOCK: batches dividing s_CLOCK give
+ * the ADWIN decisions, larger ones skip checks.
+ */
+public class CompactADWIN implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAXBUCKETS=5;
+
+    protected static final int s_ROW=MAXBUCKETS+1;
+    // window length before cuts are checked
+    protected static final int s_MIN_WINDOW=10;
+    // sub-window length used in the cut bound
+    protected static final int s_MIN_SUBWINDOW=5;
+    // cuts checked every s_CLOCK inputs
+    protected static final int s_CLOCK=32;
+
+    protected final double m_delta;
+
+    protected double[] m_total;
+    protected double[] m_variance;
+    protected int[] m_rowSize;
+    protected int m_rows;
+
+    protected int m_time;
+    protected int m_width;
+    protected double m_sum;
+    protected double m_var;
+
+
+    public CompactADWIN(double delta){
+	this.m_delta=delta;
+	this.m_total=new double[4*s_ROW];
+	this.m_variance=new double[4*s_ROW];
+	this.m_rowSize=new int[4];
+	this.m_rows=1;
+	this.m_time=0;
+	this.m_width=0;
+	this.m_sum=0;
+	this.m_var=0;
+    }
+
+    // empty window, the bucket arrays are kept
+    public void reset(){
+	Arrays.fill(this.m_rowSize,0);
+	this.m_rows=1;
+	this.m_time=0;
+	this.m_width=0;
+	this.m_sum=0;
+	this.m_var=0;
+    }
+
+    public int getWidth(){
+	return this.m_width;
+    }
+
+    public double getTotal(){
+	return this.m_sum;
+    }
+
+    public double getEstimation(){
+	return this.m_sum/this.m_width;
+    }
+
+    public double getVariance(){
+	return this.m_var/this.m_width;
+    }
+
+    // number of bucket rows
+    public int getRows(){
+	return this.m_rows;
+    }
+
+
+    // Buckets
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    protected void _insertBucket(int row, double value, double variance){
+	int idx=row*s_ROW + this.m_rowSize[row]++;
+	this.m_total[idx]=value;
+	this.m_variance[idx]=variance;
+    }
+
+    // drops the n oldest buckets of a row
+    protected void _removeBuckets(int row, int n){
+	int base=row*s_ROW;
+	System.arraycopy(this.m_total,base+n,this.m_total,base,s_ROW-n);
+	System.arraycopy(this.m_variance,base+n,this.m_variance,base,s_ROW-n);
+	this.m_rowSize[row]-=n;
+    }
+
+    protected void _addRow(){
+	if (this.m_rows==this.m_rowSize.length){
+	    int rows=2*this.m_rows;
+	    this.m_total=Arrays.copyOf(this.m_total,rows*s_ROW);
+	    this.m_variance=Arrays.copyOf(this.m_variance,rows*s_ROW);
+	    this.m_rowSize=Arrays.copyOf(this.m_rowSize,rows);
+	}
+	this.m_rowSize[this.m_rows]=0;
+	this.m_rows++;
+    }
+
+    protected void _insertElement(double value){
+	this.m_width++;
+	_insertBucket(0,value,0);
+
+	double incVariance=0;
+	if (this.m_width>1){
+	    incVariance=(this.m_width-1)
+		*(value-this.m_sum/(this.m_width-1))
+		*(value-this.m_sum/(this.m_width-1))
+		/this.m_width;
+	}
+	this.m_var+=incVariance;
+	this.m_sum+=value;
+	_compressBuckets();
+    }
+
+    // a full row merges its two oldest buckets into the next row
+    protected void _compressBuckets(){
+	for(int i=0;i<this.m_rows;i++){
+	    if (this.m_rowSize[i]!=s_ROW){
+		break;
+	    }
+	    if (i+1==this.m_rows){
+		_addRow();
+	    }
+
+	    int base=i*s_ROW;
+	    int n1=1<<i;
+	    int n2=1<<i;
+	    double u1=this.m_total[base]/n1;
+	    double u2=this.m_total[base+1]/n2;
+	    double incVariance=n1*n2*(u1-u2)*(u1-u2)/(n1+n2);
+
+	    _insertBucket(i+1,
+			  this.m_total[base]+this.m_total[base+1],
+			  this.m_variance[base]+this.m_variance[base+1]+incVariance);
+	    _removeBuckets(i,2);
+
+	    if (this.m_rowSize[i+1]<=MAXBUCKETS){
+		break;
+	    }
+	}
+    }
+
+    // drops the oldest bucket, returns its number of elements
+    protected int _deleteElement(){
+	int row=this.m_rows-1;
+	int base=row*s_ROW;
+	int n1=1<<row;
+
+	this.m_width-=n1;
+	this.m_sum-=this.m_total[base];
+	double u1=this.m_total[base]/n1;
+	double incVariance=this.m_variance[base]
+	    + n1*this.m_width*(u1-this.m_sum/this.m_width)*(u1-this.m_sum/this.m_width)
+	    /(n1+this.m_width);
+	this.m_var-=incVariance;
+
+	_removeBuckets(row,1);
+	if (this.m_rowSize[row]==0){
+	    this.m_rows--;
+	}
+	return n1;
+    }
+
+
+    // Change detection
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // returns true if the window was cut
+    public boolean setInput(double value){
+	this.m_time++;
+	_insertElement(value);
+
+	if (((this.m_time % s_CLOCK)!=0) || (this.m_width<=s_MIN_WINDOW)){
+	    return false;
+	}
+	return _checkCuts();
+    }
+
+    // drops old buckets while the two sub-windows differ
+    protected boolean _checkCuts(){
+	boolean change=false;
+	boolean reduce=true;
+	while (reduce){
+	    reduce=false;
+	    boolean exit=false;
+	    int n0=0;
+	    int n1=this.m_width;
+	    double u0=0;
+	    double u1=this.m_sum;
+	    double v0=0;
+	    double v1=this.m_var;
+
+	    // oldest row first, oldest bucket first
+	    int i=this.m_rows-1;
+	    do{
+		int base=i*s_ROW;
+		int size=this.m_rowSize[i];
+		double n2=1<<i;
+		for(int k=0;k<size;k++){
+		    double u2=this.m_total[base+k];
+		    double var=this.m_variance[base+k];
+		    if (n0>0){
+			v0+=var + n0*n2*(u0/n0-u2/n2)*(u0/n0-u2/n2)/(n0+n2);
+		    }
+		    if (n1>0){
+			v1-=var + n1*n2*(u1/n1-u2/n2)*(u1/n1-u2/n2)/(n1+n2);
+		    }
+		    n0+=1<<i;
+		    n1-=1<<i;
+		    u0+=u2;
+		    u1-=u2;
+
+		    if ((i==0) && (k==size-1)){
+			exit=true;
+			break;
+		    }
+
+		    double absvalue=(u0/n0)-(u1/n1);
+		    if ((n1>s_MIN_SUBWINDOW+1) && (n0>s_MIN_SUBWINDOW+1)
+			&& _cut(n0,n1,absvalue)){
+			reduce=true;
+			change=true;
+			if (this.m_width>0){
+			    n0-=_deleteElement();
+			    exit=true;
+			    break;
+			}
+		    }
+		}
+		i--;
+	    } while (!exit && (i>=0));
+	}
+
+	return change;
+    }
+
+    // values[0..n) in order. Returns true if the window was cut
+    public boolean setInputs(double[] values, int n){
+	int start=this.m_time;
+	for(int i=0;i<n;i++){
+	    this.m_time++;
+	    _insertElement(values[i]);
+	}
+
+	if (((this.m_time/s_CLOCK)==(start/s_CLOCK)) || (this.m_width<=s_MIN_WINDOW)){
+	    return false;
+	}
+	return _checkCuts();
+    }
+
+    protected boolean _cut(int n0, int n1, double absvalue){
+	int n=this.m_width;
+	double dd=Math.log(2*Math.log(n)/this.m_delta);
+	double v=getVariance();
+	double m=((double)1/((n0-s_MIN_SUBWINDOW+1)))
+	    + ((double)1/((n1-s_MIN_SUBWINDOW+1)));
+	double epsilon=Math.sqrt(2*m*v*dd) + (double)2/3*dd*m;
+	return (Math.abs(absvalue)>epsilon);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *    CompactADWINChangeDetector.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.core.driftdetection;
+
+import com.github.javacliparser.FloatOption;
+
+import moa.core.ObjectRepository;
+import moa.tasks.TaskMonitor;
+
+
+/*
+ * ADWINChangeDetector on CompactADWIN: same changes, no per-row objects.
+ *
+ * Example (ElasticRandomForest):
+ *  -x (CompactADWINChangeDetector -a 1.0E-5)
+ */
+public class CompactADWINChangeDetector extends AbstractChangeDetector {
+
+    private static final long serialVersionUID = 1L;
+
+    protected CompactADWIN adwin;
+
+    public FloatOption deltaAdwinOption = new FloatOption("deltaAdwin", 'a',
+							   "Delta of Adwin change detection",
+							   0.002, 0.0, 1.0);
+
+    @Override
+    public void input(double inputValue) {
+	if (this.adwin == null) {
+	    resetLearning();
+	}
+	double errEstim = this.adwin.getEstimation();
+	if (this.adwin.setInput(inputValue)) {
+	    if (this.adwin.getEstimation() > errEstim) {
+		this.isChangeDetected = true;
+	    }
+	}
+	this.isWarningZone = false;
+	this.delay = 0.0;
+	this.estimation = this.adwin.getEstimation();
+    }
+
+    // values[0..n) in order, one cut check (see CompactADWIN.setInputs)
+    public void input(double[] values, int n) {
+	if (this.adwin == null) {
+	    resetLearning();
+	}
+	double errEstim = this.adwin.getEstimation();
+	if (this.adwin.setInputs(values, n)) {
+	    if (this.adwin.getEstimation() > errEstim) {
+		this.isChangeDetected = true;
+	    }
+	}
+	this.isWarningZone = false;
+	this.delay = 0.0;
+	this.estimation = this.adwin.getEstimation();
+    }
+
+    @Override
+    public void resetLearning() {
+	this.adwin = new CompactADWIN(this.deltaAdwinOption.getValue());
+	super.resetLearning();
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+    }
+
+    @Override
+    protected void prepareForUseImpl(TaskMonitor monitor,
+				     ObjectRepository repository) {
+    }
+}
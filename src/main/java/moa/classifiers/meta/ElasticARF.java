@@ -36,6 +36,7 @@ import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.Callable;
@@ -232,9 +233,10 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
             }
         }
 
+        // the tree already returns a fresh array: no DoubleVector copy.
+        // Callers treat it as a read-only view
         public double[] getVotesForInstance(Instance instance) {
-            DoubleVector vote = new DoubleVector(this.classifier.getVotesForInstance(instance));
-            return vote.getArrayRef();
+            return this.classifier.getVotesForInstance(instance);
         }
     }
 
@@ -548,6 +550,9 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 
 	//private static final long serialVersionUID = 1L;
 
+	// resize EMA window before emaWindow (see setEmaWindow)
+	protected static final int s_LEGACY_EMA_WINDOW=2000;
+
 	protected double m_lambda;
 	protected int   m_candidatesSize;
 	protected int   m_frontSize;
@@ -556,6 +561,13 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	protected int m_resizeFactor;
 	protected double m_shrinkThreshold;
 	protected double m_growThreshold;
+	protected int m_emaWindow;
+	protected double m_resizeHysteresis;
+	protected int m_resizeCooldown;
+	// step table: m_penalty[i] applies from front size m_penaltySize[i]
+	protected int[] m_penaltySize;
+	protected double[] m_penalty;
+	protected double m_emaAlpha;
 
 	
 	
@@ -574,6 +586,11 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 
 	    this.m_shrinkThreshold=0.0;
 	    this.m_growThreshold=0.0;
+	    setEmaWindow(0);
+	    this.m_resizeHysteresis=0.0;
+	    this.m_resizeCooldown=0;
+	    this.m_penaltySize=new int[0];
+	    this.m_penalty=new double[0];
 	}
 
 	double getLambda() { return this.m_lambda; }
@@ -590,6 +607,51 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	void setGrowThreshold(double t){ this.m_growThreshold=t;}
 	double getGrowThreshold(){ return this.m_growThreshold; }
 
+	// weight of the new value in the resize EMAs: 1-exp(-1/window),
+	// larger windows smooth more. 0: legacy weight exp(-1/2000), close
+	// to 1 (the EMAs follow the last value)
+	void setEmaWindow(int w){
+	    this.m_emaWindow=w;
+	    this.m_emaAlpha=(w==0)
+		? Math.exp(-(1.0/s_LEGACY_EMA_WINDOW))
+		: 1.0-Math.exp(-(1.0/w));
+	}
+	int getEmaWindow(){ return this.m_emaWindow; }
+	double getEmaAlpha(){ return this.m_emaAlpha; }
+
+	void setResizeHysteresis(double h){ this.m_resizeHysteresis=h;}
+	double getResizeHysteresis(){ return this.m_resizeHysteresis; }
+
+	void setResizeCooldown(int n){ this.m_resizeCooldown=n;}
+	int getResizeCooldown(){ return this.m_resizeCooldown; }
+
+	// "size:penalty,size:penalty,..." sorted by size, i.e "30:0.0005,50:0.001"
+	void setSizePenalty(String table){
+	    String t=table.trim();
+	    String[] entries=(t.length()==0) ? new String[0] : t.split(",");
+	    this.m_penaltySize=new int[entries.length];
+	    this.m_penalty=new double[entries.length];
+	    for(int i=0;i<entries.length;i++){
+		String[] kv=entries[i].split(":");
+		if (kv.length!=2){
+		    throw new IllegalArgumentException("Bad sizePenalty entry: "+entries[i]);
+		}
+		this.m_penaltySize[i]=Integer.parseInt(kv[0].trim());
+		this.m_penalty[i]=Double.parseDouble(kv[1].trim());
+		if ((i>0) && (this.m_penaltySize[i]<=this.m_penaltySize[i-1])){
+		    throw new IllegalArgumentException("sizePenalty sizes must increase: "+table);
+		}
+	    }
+	}
+
+	double getSizePenalty(int size){
+	    double p=0.0;
+	    for(int i=0;(i<this.m_penaltySize.length) && (this.m_penaltySize[i]<=size);i++){
+		p=this.m_penalty[i];
+	    }
+	    return p;
+	}
+
 	
 	
     }
@@ -1255,7 +1317,8 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	// 0          if noop
 	// positive   should grow
 	// negative   should shrink
-	public int shouldResize();
+	// frontSize: current front group size
+	public int shouldResize(int frontSize);
 
 	public void reset();
 	public void grow();
@@ -1265,38 +1328,31 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
     }
 
     
+    // Bias-corrected EMA on primitives. alpha is the weight of the new
+    // value, precomputed by ElasticConfig from emaWindow:
+    //   m = (1-alpha)*m + alpha*value        returns m/(1-(1-alpha)^n)
+    // The correction makes the first value exact (no seeding case).
     class ExponentialMovingAverage {
-	private Double old_value;
-	private double N;
-	
-	public ExponentialMovingAverage() {
+	private final double m_alpha;
+	private final double m_beta;
+	private double m_value;
+	private double m_betaPow;
+	
+	public ExponentialMovingAverage(double alpha) {
+	    this.m_alpha=alpha;
+	    this.m_beta=1.0-alpha;
 	    reset();
 	}
 
 	void reset(){
-	    N=0;
-	    old_value=null;
+	    this.m_value=0;
+	    this.m_betaPow=1.0;
 	}
 
 	public double add_value(double value) {
-	    if (old_value == null) {
-		old_value = value;
-		return value;
-	    }
-
-	    //double alpha = 2.0 / (N+1);
-	    //double new_value = old_value + alpha * (value - old_value);
-
-	    //double window= 1000; // ORIG
-	    double window= 2000;
-	    double alpha = Math.exp(-(1/window));
-	    double new_value = old_value + alpha * (value - old_value);
-
-	    //double new_value = alpha*value + (1-alpha) * (old_value);
-
-	    N++;
-	    old_value = new_value;
-	    return new_value;
+	    this.m_value=this.m_beta*this.m_value + this.m_alpha*value;
+	    this.m_betaPow*=this.m_beta;
+	    return this.m_value/(1.0-this.m_betaPow);
 	}
 	
 	
@@ -1325,15 +1381,17 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 
 	protected int cross_shrink;
 	protected int cross_grow;
+	// last operation: 1 grow, -1 shrink, 0 none
+	protected int last_operation;
 	protected ElasticConfig m_config;
 	
 	
 	public EmaElastic(ElasticConfig config){
 
 	    this.m_config = config;
-	    _shrink = new ExponentialMovingAverage();
-	    _default = new ExponentialMovingAverage();
-	    _grow = new ExponentialMovingAverage();
+	    _shrink = new ExponentialMovingAverage(config.getEmaAlpha());
+	    _default = new ExponentialMovingAverage(config.getEmaAlpha());
+	    _grow = new ExponentialMovingAverage(config.getEmaAlpha());
 	    cross_shrink=0;
 	    cross_grow=0;
 	    
@@ -1390,281 +1448,57 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	// 0          if noop
 	// positive   should grow
 	// negative   should shrink
-	public int shouldResize(){
-
-	    double delta_shrink = ema_shrink - ema_default; // +mod;
-	    double delta_grow = ema_grow - ema_default;// +mod;
-
-	    
-	    //mirar esto: hacer mas dificil crecer cuando el tamaño es grande.
-	    //double mod = 1.0 - (double)operations/100.0;
-	    double mod = 1.0 - (double)operations/100.0;
-	    mod=mod/100;
-	    mod=0.0;
-	    
-	    if(operations >=70)
-		mod=0.01;
-
-	    if(operations >=60)
-		mod=0.005;
-	    
-	    if(operations >=50)
-		mod=0.001;
-
-	    if(operations >=40)
-		mod=0.0005;
-
-	    if(operations >=30)
-		mod=0.0001;
-
-
-	    
-	    if (operations <=50)
-		mod/=2;
-
-	    /*
-	    mod=0.001;
-	    
-	    //mod = 
-	    double inv_mod = mod +1.0;
-	    //mod*=2;
-	    //double mod = 0.0;
-
-	    System.out.println("ShouldResize> operation:" + operations
-			       + " | mods:" + mod 
-			       + " | inv mods:" + inv_mod );
-	    
-	    if (delta_grow > mod){
-		if(delta_shrink<=mod){
-		    return 1;
-		}
-	    }
-
-	    if (delta_shrink> mod){
-		if(delta_grow<=mod){
-		    return -1;
-		}
+	//
+	// The gap of the shrunk/grown ensemble over the default one must
+	// exceed the band of the operation:
+	//   grow:   GrowThreshold   + sizePenalty(front size)
+	//   shrink: ShrinkThreshold
+	// plus resizeHysteresis when the operation reverses the last one.
+	// Nothing happens for resizeCooldown instances after an operation.
+	public int shouldResize(int frontSize){
+
+	    if ((last_operation!=0)
+		&& (instancesSeen < this.m_config.getResizeCooldown())){
+		return 0;
 	    }
-	    */
-	    
-	    mod=0.0001;
-
-	    //73.5605 :: 16.943791111111        5.1928126184455 10      28
-	    // 39m2s (CPU time)
-	    // 152 ==>GROW
-	    // 136 ==>SRHINK
-	    //double smod=0.001;
-	    //double gmod=0.001;
-
-	    // 73.59369000000001 :: 17.559027666667      2.6460623284159 10      40
-	    // Task completed in 40m3s (CPU time)
-	    // 327 ==>GROW
-	    // 292 ==>SRHINK
-	    double smod=0.001;
-	    double gmod=0.0005;
-
-
-	    smod=this.m_config.getShrinkThreshold();
-	    gmod=this.m_config.getGrowThreshold();
-	    
-
-	    
-	    // 73.64359000000002 :: 23.168211444444      9.7945714166529 10 39B
-	    // Task completed in 48m37s (CPU time)
-	    // 681 ==>GROW
-	    // 594 ==>SRHINK
-	    //double smod=0.001;
-	    //double gmod=0.0001;
-
-
-	    // 73.63002999999999 :: 23.511347111111      7.8863656281118 10      42
-	    // 53m44s (CPU time)
-	    // 769 ==>GROW
-	    // 670 ==>SRHINK
-		    
-
-
-	    //Task completed in 1h4m58s (CPU time)
-	    // 73.67609 :: 33.418495666667       15.407473701577 13      74
-	    // 372 ==>GROW
-	    // 111 ==>SRHINK
-            //double smod=0.005;
-	    //double gmod=0.00001;
-
-
-	    // 73.67685 :: 33.726074555556       15.815987350369 13      76
-	    // Task completed in 1h5m36s (CPU time)
-	    // 384 ==>GROW
-	    // 113 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.000001;
-
-	    
-	    // 73.70067 :: 26.925273777778       11.393262120569 12      60
-	    // Task completed in 1h0m8s (CPU time)
-	    // 262 ==>GROW
-	    // 98 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0001;
-
-
-
-	    // 73.59858000000001 :: 18.366492666667      4.6094069921575 13      26
-	    // Task completed in 45m18s (CPU time)
-	    // 81 ==>GROW
-	    // 47 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.001;
-
-
-	    
-	    // 73.59627 :: 19.730673777778       4.3725866434936 13      32
-	    // Task completed in 43m8s (CPU time)
-	    // 123 ==>GROW
-	    // 59 ==>SRHINK
-	    // double smod=0.005;
-	    // double gmod=0.0005;
-
-	    
-	    // 73.61496 :: 14.999755555556       1.6112461725957 13      19
-	    // Task completed in 36m4s (CPU time)
-	    // 12 ==>GROW
-	    // 12 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.005;
-
-
-
-	    // 73.57433 :: 14.300099222222       2.1903882940701 11      19
-	    // Task completed in 38m8s (CPU time)
-	    // 27 ==>GROW
-	    // 34 ==>SRHINK
-	    //double smod=0.0025;
-	    //double gmod=0.0025;
-
-
-	    // 73.57505 :: 15.796867555556       2.2691379185133 13      20
-	    // Task completed in 37m29s (CPU time)
-	    // 21 ==>GROW
-	    // 13 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0025;
-
-	    // testeando valores de arriba, a gran escala
-	    //double smod=0.005;
-	    //double gmod=0.0001;
-	    // testeados con el RBF:
 
-	    
-	    // SMALL BEST
-	    // RbF_M => 85.22009 :: 30.953941     6.2092171690431 12      44
-	    // Task completed in 1h26m21s (CPU time)
-	    // 296 ==>GROW
-	    // 127 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.001;
-	    
-	    // BIGGER BEST
-	    // 85.86076000000001 :: 65.306929333333      19.190688157836 12      89
-	    // Task completed in 2h44m49s (CPU time)
-	    // 1014 ==>GROW
-	    // 350 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0001;
-
-
-
-	    // 85.93082999999999 :: 71.014344888889     20.310328102079 11      89
-	    // Task completed in 3h21m7s (CPU time)
-	    // 532 ==>GROW
-	    // 180 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0001;
-	    // RESIZE FACTOER=2
-
-
-
-
-
-	    // 85.8533 :: 64.081851777778        19.651437229762 12      89
-	    // 	    Task completed in 2h40m44s (CPU time)
-	    // 998 ==>GROW
-	    // 332 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.00005;
-
-	    
-	    // 85.46166 :: 38.838029444444       9.5571003284375 12      52
-	    // Task completed in 1h42m28s (CPU time)
-	    // 452 ==>GROW
-	    // 187 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0005;
-		
-	    
-	    // 84.23528999999999 :: 17.264824777778      2.2910169692963 12      22
-	    // Task completed in 56m26s (CPU time)
-	    // 63 ==>GROW
-	    // 40 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0025;
+	    double delta_shrink = ema_shrink - ema_default;
+	    double delta_grow = ema_grow - ema_default;
 
-	    
+	    double gband=this.m_config.getGrowThreshold()
+		+ this.m_config.getSizePenalty(frontSize);
+	    double sband=this.m_config.getShrinkThreshold();
 
-	    
-	    //Task completed in 51m52s (CPU time)
-	    //83.97466000000001 :: 15.698789666667      2.4908100025666 12      22
-	    //34 ==>GROW
-	    // 27 ==>SRHINK
-	    // smod =0.005
-	    // gmod =0.005
-		
-	    
-	    
-	    
-	    
-	    /*
-            if (delta_grow > gmod){
-		if(delta_shrink<=smod){
-		    return 1;
-		}
+	    if (last_operation<0){
+		gband+=this.m_config.getResizeHysteresis();
 	    }
-
-	    if (delta_shrink> smod){
-		if(delta_grow<=gmod){
-		    return -1;
-		}
+	    if (last_operation>0){
+		sband+=this.m_config.getResizeHysteresis();
 	    }
-	    */
+
 	    if (delta_grow>delta_shrink){
-		if (delta_grow > gmod)
+		if (delta_grow > gband)
 		    return 1;
 	    }
 
 	    if (delta_shrink>delta_grow){
-		if (delta_shrink > smod)
+		if (delta_shrink > sband)
 		    return -1;
 	    }
     
-	    
 	    return 0;
-	    // FILTER
-	    /*
-	    filter = 15;
-	    value_filtered = value + (value_prev*filter)/(filter+1);
-	    value_prev = value_filtered
-	    */	
-	    
 	}
 
 	public void reset(){
 	    reset_ema();
 	    instancesSeen=0;
 	    operations=0;
+	    last_operation=0;
 	}
 	
 	public void grow(){
 	    operations++;
+	    last_operation=1;
 	    instancesSeen=0;
 	    reset_ema();
 	    //System.out.println("==>GROW");// ops:" + operations);
@@ -1678,6 +1512,7 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	
 	public void shrink(){
 	    operations--;
+	    last_operation=-1;
 	    instancesSeen=0;
 	    reset_ema();
 	    //System.out.println("==>SRHINK");// ops:" + operations);
@@ -1733,10 +1568,10 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	protected long operations;
 
 	
-	public EmaElastic_good(){
-	    _shrink = new ExponentialMovingAverage();
-	    _default = new ExponentialMovingAverage();
-	    _grow = new ExponentialMovingAverage();
+	public EmaElastic_good(ElasticConfig config){
+	    _shrink = new ExponentialMovingAverage(config.getEmaAlpha());
+	    _default = new ExponentialMovingAverage(config.getEmaAlpha());
+	    _grow = new ExponentialMovingAverage(config.getEmaAlpha());
 	    reset();
 
 	}
@@ -1792,7 +1627,7 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	// 0          if noop
 	// positive   should grow
 	// negative   should shrink
-	public int shouldResize(){
+	public int shouldResize(int frontSize){
 
 			       
 
@@ -1986,7 +1821,7 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	// positive   should grow
 	// negative   should shrink
 	@Override
-	public int shouldResize(){
+	public int shouldResize(int frontSize){
 
 	    double gtest=this.m_grow.mcnemar();
 	    double stest=this.m_shrink.mcnemar();
@@ -2361,6 +2196,7 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	public double[] getVotesForInstance(Instance instance);
 	public void trainOnInstanceImpl(Instance instance);
 	public void reset();
+	public GroupEnsemble getEnsemble();
 
     }
 
@@ -2408,6 +2244,31 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	    }
 	}
 
+	// _combineVotes into a plain buffer, without allocating. Same
+	// arithmetic as DoubleVector normalize/scale/add, so the combined
+	// votes are identical
+	protected void _accumulateVote(double[] combinedVote, double[] vote, double acc){
+	    double sum=0;
+	    double abs=0;
+	    for(int c=0;c<vote.length;c++){
+		sum+=vote[c];
+		abs+=Math.abs(vote[c]);
+	    }
+	    if (!(sum > 0.0)){
+		return;
+	    }
+
+	    double scale=1.0/abs;
+	    int n=Math.min(vote.length,combinedVote.length);
+	    for(int c=0;c<n;c++){
+		double v=vote[c]*scale;
+		if (acc>0){
+		    v=v*acc;
+		}
+		combinedVote[c]+=v;
+	    }
+	}
+
 	protected void _resetGroup(int Group){
 	    int e=this.m_ensemble.groupSize(Group);
 	    for(int i=0;i<e;i++){
@@ -2456,6 +2317,16 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 
 	}
 
+	// accumulates into a reusable buffer (see _accumulateVote)
+	protected void _trainRange(Instance instance,
+				   int Group,int startIdx, int endIdx,
+				   double[] combinedVote){
+	    for(int i=startIdx;i<endIdx;i++){
+		ARFBaseLearner l=this.m_ensemble.learner(Group,i);
+		_accumulateVote(combinedVote, _trainLearner(instance,l), l.accuracy.get());
+	    }
+	}
+
 	protected void _trainRange(Instance instance,
 				   int Group,int startIdx, int endIdx){
 	    int s=startIdx;
@@ -2566,6 +2437,11 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	@Override
 	public void reset() {
 	}
+
+	@Override
+	public GroupEnsemble getEnsemble() {
+	    return this.m_ensemble;
+	}
 	
 	
 	@Override
@@ -2736,7 +2612,7 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	    this.m_elastic.addResults(trueClass,
 				      ys,yd,yg);
 
-	    int resizeOperation=this.m_elastic.shouldResize();
+	    int resizeOperation=this.m_elastic.shouldResize(this.m_ensemble.groupSize(s_GFRONT));
 
 	    if (resizeOperation==s_ELASTIC_OPERATION_GROW){
 
@@ -2847,7 +2723,7 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 
 
 	    if ((this.m_instancesSeen % this.m_config.getElasticInterval())==0){
-		int resizeOperation=this.m_elastic.shouldResize();
+		int resizeOperation=this.m_elastic.shouldResize(this.m_ensemble.groupSize(s_GFRONT));
 		doOperation(resizeOperation);
 	    }
 	    this._doSwap();
@@ -2958,6 +2834,9 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	protected int s_GGROW=1;
 	protected Elastic m_elastic;
 
+	// combined vote, reused across instances
+	protected double[] m_combinedVote;
+
 	ElasticPolicyARF(ElasticConfig config,
 			  learnerAllocator alloc){
 	    super(config,alloc);
@@ -3001,7 +2880,14 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	    if (weight == 0.0)
 		return;
 
-	    DoubleVector combinedVote = new DoubleVector();
+	    // Single pass over front+grow: ys, yd and yg are read from the
+	    // running sum as each range is added
+	    int numClasses=instance.numClasses();
+	    if ((this.m_combinedVote==null) || (this.m_combinedVote.length!=numClasses)){
+		this.m_combinedVote=new double[numClasses];
+	    }
+	    double[] combinedVote=this.m_combinedVote;
+	    Arrays.fill(combinedVote,0.0);
 
 	    int s=this.m_ensemble.groupSize(s_GFRONT);
 	    int rs=this.m_config.getResizeFactor();
@@ -3011,19 +2897,21 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 	    _trainRange(instance,
 			s_GFRONT,0,s-rs,
 			combinedVote);
-	    int ys=Utils.maxIndex(combinedVote.getArrayRef()); //.maxIndex();
+	    int ys=Utils.maxIndex(combinedVote);
 
 
 	    // DEFAULT ENSEMMBLE PREDICTION
 	    _trainRange(instance,
 			s_GFRONT,s-rs,s,
 			combinedVote);
-	    int yd=Utils.maxIndex(combinedVote.getArrayRef()); //.maxIndex();
+	    int yd=Utils.maxIndex(combinedVote);
 
 
 	    // GROWN ENSEMMBLE PREDICTION
-	    _trainGroup(s_GGROW,instance,combinedVote);
-	    int yg=Utils.maxIndex(combinedVote.getArrayRef()); //.maxIndex();
+	    _trainRange(instance,
+			s_GGROW,0,this.m_ensemble.groupSize(s_GGROW),
+			combinedVote);
+	    int yg=Utils.maxIndex(combinedVote);
 
 
 	    // Update ENSEMBLES stats
@@ -3033,7 +2921,7 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 
 	    // Check for a resize every  this.m_config.getElasticInterval()
 	    if ((this.m_instancesSeen % this.m_config.getElasticInterval())==0){
-		int resizeOperation=this.m_elastic.shouldResize();
+		int resizeOperation=this.m_elastic.shouldResize(this.m_ensemble.groupSize(s_GFRONT));
 		doOperation(resizeOperation);
 	    }
 
@@ -3152,12 +3040,22 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 							   ARFHoeffdingTree.class,
 							   "ARFHoeffdingTree -e 2000000 -g 50 -c 0.01");
 
+    // -n
+    public IntOption emaWindowOption = new IntOption("emaWindow", 'n',
+						     "Window of the resize EMAs, new value weight 1-exp(-1/emaWindow) (0: legacy weight exp(-1/2000), nearly no smoothing).",
+						     0, 0, Integer.MAX_VALUE);
+
     // -p
     public ClassOption driftWarningDetectionMethod = new ClassOption("warningDetectionMethod", 'p',
         "Change detector for warnings (start training bkg learner)", ChangeDetector.class, "ADWINChangeDetector -a 1.0E-4");
  
     
     
+    // -q
+    public StringOption sizePenaltyOption = new StringOption("sizePenalty", 'q',
+							     "Grow penalty by front size, size:penalty pairs (i.e 30:0.0005,50:0.001).",
+							     "");
+
     // -s
     public IntOption maxSizeOption = new IntOption("maxSize", 's',
 						   "Maximum learners (front+candidate).",
@@ -3181,6 +3079,16 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 							    "TODO",
 							    0.005, 0.0, Float.MAX_VALUE);
 
+    // -H
+    public FloatOption resizeHysteresisOption = new FloatOption("resizeHysteresis", 'H',
+								"Extra gap needed to reverse the last grow/shrink.",
+								0.0, 0.0, Float.MAX_VALUE);
+
+    // -R
+    public IntOption resizeCooldownOption = new IntOption("resizeCooldown", 'R',
+							  "Instances without resizing after a grow/shrink.",
+							  0, 0, Integer.MAX_VALUE);
+
     
 
     
@@ -3245,7 +3153,15 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 
     @Override
     protected Measurement[] getModelMeasurementsImpl() {
-        return null;
+	if (this.m_init==false){
+	    return null;
+	}
+
+	GroupEnsemble en=this.m_elasticPolicy.getEnsemble();
+	return new Measurement[]{
+	    new Measurement("front learners",en.groupSize(s_GFRONT)),
+	    new Measurement("total learners",en.size())
+	};
     }
 
     protected void _initEnsemble(Instance instance) {
@@ -3273,6 +3189,10 @@ public class ElasticARF extends AbstractClassifier implements MultiClassClassifi
 
 	this.m_config.setShrinkThreshold(this.shrinkThresholsOption.getValue());
 	this.m_config.setGrowThreshold(this.growThresholsOption.getValue());
+	this.m_config.setEmaWindow(this.emaWindowOption.getValue());
+	this.m_config.setResizeHysteresis(this.resizeHysteresisOption.getValue());
+	this.m_config.setResizeCooldown(this.resizeCooldownOption.getValue());
+	this.m_config.setSizePenalty(this.sizePenaltyOption.getValue());
 
 	this.m_elasticPolicy = new ElasticPolicyARF(this.m_config,
 						    this.m_learnerAllocator);
@@ -0,0 +1,256 @@
+/*
+ *    ElasticForestHost.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/*
+ * Hosts many independent models, each fed by its own stream.
+ *
+ * Every model owns a mailbox of requests (predict, train,
+ * predictAndTrain). A mailbox with pending requests is scheduled on one
+ * of a few carrier threads, runs up to batchSize requests and yields the
+ * carrier. A model is never run by two carriers at the same time, so
+ * model state is confined to one thread at a time and needs no locking:
+ * thousands of forests multiplex on a handful of threads.
+ *
+ * This is the Java 1.7 form of a virtual thread per model: the mailbox
+ * is the thread, the yield point is the end of a batch.
+ *
+ * Models should not start threads of their own (ElasticRandomForest
+ * defaults: no parallel scoring/training, candidates trained in place).
+ *
+ * Example:
+ *  ElasticForestHost host=new ElasticForestHost(4,16);
+ *  int id=host.addModel(learner);   // prepared, with model context
+ *  Future<double[]> votes=host.predictAndTrain(id,instance);
+ */
+public class ElasticForestHost {
+
+    /////////////////////////////////////////////////////////////////////////////////////
+    //
+    //// MODEL MAILBOX
+    //
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // a posted request, failed if the host shuts down first
+    protected static class Request<T> extends FutureTask<T>{
+
+	Request(Callable<T> request){
+	    super(request);
+	}
+
+	public void fail(Throwable t){
+	    setException(t);
+	}
+    }
+
+    protected class Mailbox implements Runnable{
+
+	protected final Classifier m_model;
+	protected final ConcurrentLinkedQueue<Request<?>> m_queue;
+	// true while the mailbox is queued or running on a carrier
+	protected final AtomicBoolean m_scheduled;
+
+	Mailbox(Classifier model){
+	    this.m_model=model;
+	    this.m_queue=new ConcurrentLinkedQueue<Request<?>>();
+	    this.m_scheduled=new AtomicBoolean(false);
+	}
+
+	public <T> Future<T> post(Callable<T> request){
+	    Request<T> task=new Request<T>(request);
+	    this.m_queue.add(task);
+	    _schedule();
+	    return task;
+	}
+
+	// Once the carriers are shut down the execute is rejected: the
+	// mailbox is not scheduled and its requests fail
+	protected void _schedule(){
+	    if (!this.m_scheduled.compareAndSet(false,true)){
+		return;
+	    }
+	    try{
+		m_carriers.execute(this);
+	    } catch (RejectedExecutionException e){
+		this.m_scheduled.set(false);
+		_failPending(e);
+	    }
+	}
+
+	protected void _failPending(Throwable t){
+	    Request<?> task;
+	    while ((task=this.m_queue.poll())!=null){
+		task.fail(t);
+	    }
+	}
+
+	@Override
+	public void run(){
+	    int n=0;
+	    Request<?> task;
+	    while ((n<m_batchSize) && ((task=this.m_queue.poll())!=null)){
+		task.run();
+		n++;
+	    }
+
+	    // yield. Requests posted after the last poll saw m_scheduled
+	    // still true and did not schedule, so check again
+	    this.m_scheduled.set(false);
+	    if (!this.m_queue.isEmpty()){
+		_schedule();
+	    }
+	}
+    }
+
+
+    // Members
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    protected final ExecutorService m_carriers;
+    protected final int m_batchSize;
+    protected final List<Mailbox> m_models;
+
+
+    // Methods
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // carriers: threads shared by all models (0: available processors)
+    // batchSize: requests a model runs before yielding its carrier
+    public ElasticForestHost(int carriers, int batchSize){
+	if (carriers<=0){
+	    carriers=Runtime.getRuntime().availableProcessors();
+	}
+	if (batchSize<=0){
+	    throw new IllegalArgumentException("batchSize must be positive: "+batchSize);
+	}
+
+	this.m_batchSize=batchSize;
+	this.m_models=new ArrayList<Mailbox>();
+	this.m_carriers=Executors.newFixedThreadPool(carriers,new ThreadFactory(){
+		private int m_count=0;
+
+		@Override
+		public synchronized Thread newThread(Runnable r){
+		    Thread t=new Thread(r,"ElasticForestHost-carrier-"+(m_count++));
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+    }
+
+    // The host owns the model from now on: it must only be used
+    // through the host. Returns the model id
+    public synchronized int addModel(Classifier model){
+	this.m_models.add(new Mailbox(model));
+	return this.m_models.size()-1;
+    }
+
+    public synchronized int numModels(){
+	return this.m_models.size();
+    }
+
+    protected synchronized Mailbox _mailbox(int id){
+	if ((id<0) || (id>=this.m_models.size())){
+	    throw new IllegalArgumentException("Unknown model: "+id);
+	}
+	return this.m_models.get(id);
+    }
+
+    // Requests of a model run in the order they were posted. The
+    // instance must not be modified by the caller until the future is
+    // done.
+
+    public Future<double[]> predict(int id, final Instance instance){
+	final Classifier model=_mailbox(id).m_model;
+	return _mailbox(id).post(new Callable<double[]>(){
+		@Override
+		public double[] call(){
+		    return model.getVotesForInstance(instance);
+		}
+	    });
+    }
+
+    public Future<double[]> train(int id, final Instance instance){
+	final Classifier model=_mailbox(id).m_model;
+	return _mailbox(id).post(new Callable<double[]>(){
+		@Override
+		public double[] call(){
+		    model.trainOnInstance(instance);
+		    return null;
+		}
+	    });
+    }
+
+    // test-then-train, fused for ElasticRandomForest
+    public Future<double[]> predictAndTrain(int id, final Instance instance){
+	final Classifier model=_mailbox(id).m_model;
+	return _mailbox(id).post(new Callable<double[]>(){
+		@Override
+		public double[] call(){
+		    if (model instanceof ElasticRandomForest){
+			return ((ElasticRandomForest)model).predictAndTrain(instance);
+		    }
+		    double[] votes=model.getVotesForInstance(instance);
+		    model.trainOnInstance(instance);
+		    return votes;
+		}
+	    });
+    }
+
+    // Runs any request (i.e measurements, copy) confined to the model
+    // thread
+    public <T> Future<T> call(int id, Callable<T> request){
+	return _mailbox(id).post(request);
+    }
+
+    // Stops the carriers once the scheduled mailboxes ran their
+    // current batch. Requests still queued, and the ones posted later,
+    // fail with a RejectedExecutionException
+    public void shutdown(){
+	this.m_carriers.shutdown();
+
+	List<Mailbox> models;
+	synchronized(this){
+	    models=new ArrayList<Mailbox>(this.m_models);
+	}
+	RejectedExecutionException e=new RejectedExecutionException("ElasticForestHost is shut down");
+	for(Mailbox m : models){
+	    // scheduled ones fail theirs when they yield
+	    if (!m.m_scheduled.get()){
+		m._failPending(e);
+	    }
+	}
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ *    ElasticForestRuntime.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import moa.core.TimingUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.text.DecimalFormat;
+
+
+/*
+ * Learner training threads shared by every forest in the process.
+ *
+ * Each hosted model is a flow with a weight. Per-learner training tasks
+ * of all models go through one start-time fair queue (SFQ): a task gets
+ * start tag max(V, finish tag of the previous task of its model) and
+ * finish tag start + cost/weight, the worker runs the task with the
+ * smallest start tag and V is the start tag in service. Backlogged
+ * models get training time in proportion to their weights, so a hot
+ * stream can not starve the others. Cost is the tree cost estimate.
+ *
+ * CPU time of every task is charged to its model (see cpuShare/report).
+ *
+ * Example:
+ *  ElasticForestRuntime rt=new ElasticForestRuntime(4);
+ *  erf.setRuntime(rt,rt.addModel(1.0));
+ */
+public class ElasticForestRuntime {
+
+    /////////////////////////////////////////////////////////////////////////////////////
+    //
+    //// FLOWS AND TASKS
+    //
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    protected class Flow{
+	protected final double m_weight;
+	protected double m_finish;
+	protected long m_cpuTime;
+	protected long m_tasks;
+
+	Flow(double weight){
+	    this.m_weight=weight;
+	    this.m_finish=0;
+	    this.m_cpuTime=0;
+	    this.m_tasks=0;
+	}
+    }
+
+    // tasks of one execute call
+    protected class Batch{
+	protected final CountDownLatch m_done;
+	protected volatile Throwable m_error;
+
+	Batch(int n){
+	    this.m_done=new CountDownLatch(n);
+	}
+    }
+
+    protected class Task implements Comparable<Task>{
+	protected final Flow m_flow;
+	protected final Batch m_batch;
+	protected final Runnable m_work;
+	protected final double m_start;
+	protected final long m_seq;
+
+	Task(Flow flow, Batch batch, Runnable work, double start, long seq){
+	    this.m_flow=flow;
+	    this.m_batch=batch;
+	    this.m_work=work;
+	    this.m_start=start;
+	    this.m_seq=seq;
+	}
+
+	// by start tag, FIFO on ties
+	@Override
+	public int compareTo(Task o){
+	    int c=Double.compare(this.m_start,o.m_start);
+	    if (c!=0){
+		return c;
+	    }
+	    return (this.m_seq<o.m_seq) ? -1 : ((this.m_seq==o.m_seq) ? 0 : 1);
+	}
+    }
+
+
+    // Members (guarded by this)
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    protected final List<Flow> m_flows;
+    protected final PriorityQueue<Task> m_queue;
+    protected final Thread[] m_workers;
+    protected double m_virtualTime;
+    protected long m_seq;
+    protected long m_cpuTime;
+    protected boolean m_shutdown;
+
+
+    // Methods
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // threads: workers shared by all models (0: available processors)
+    public ElasticForestRuntime(int threads){
+	if (threads<=0){
+	    threads=Runtime.getRuntime().availableProcessors();
+	}
+
+	TimingUtils.enablePreciseTiming();
+
+	this.m_flows=new ArrayList<Flow>();
+	this.m_queue=new PriorityQueue<Task>();
+	this.m_virtualTime=0;
+	this.m_seq=0;
+	this.m_cpuTime=0;
+	this.m_shutdown=false;
+
+	this.m_workers=new Thread[threads];
+	for(int i=0;i<threads;i++){
+	    this.m_workers[i]=new Thread(new Runnable(){
+		    @Override
+		    public void run(){
+			_work();
+		    }
+		},"ElasticForestRuntime-"+i);
+	    this.m_workers[i].setDaemon(true);
+	    this.m_workers[i].start();
+	}
+    }
+
+    // Returns the model id
+    public synchronized int addModel(double weight){
+	if (!(weight>0.0)){
+	    throw new IllegalArgumentException("weight must be positive: "+weight);
+	}
+	this.m_flows.add(new Flow(weight));
+	return this.m_flows.size()-1;
+    }
+
+    protected Flow _flow(int model){
+	if ((model<0) || (model>=this.m_flows.size())){
+	    throw new IllegalArgumentException("Unknown model: "+model);
+	}
+	return this.m_flows.get(model);
+    }
+
+    // Runs work[i] (estimated cost[i]) for a model and waits until all
+    // of them are done. Must not be called from a runtime worker
+    public void execute(int model, Runnable[] work, double[] cost){
+	Batch batch=new Batch(work.length);
+
+	synchronized(this){
+	    if (this.m_shutdown){
+		throw new IllegalStateException("ElasticForestRuntime is shut down");
+	    }
+	    Flow flow=_flow(model);
+	    for(int i=0;i<work.length;i++){
+		double start=Math.max(this.m_virtualTime,flow.m_finish);
+		flow.m_finish=start + Math.max(cost[i],1.0)/flow.m_weight;
+		this.m_queue.add(new Task(flow,batch,work[i],start,this.m_seq++));
+	    }
+	    notifyAll();
+	}
+
+	try{
+	    batch.m_done.await();
+	} catch (InterruptedException e){
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException("Interrupted waiting for training tasks",e);
+	}
+	if (batch.m_error!=null){
+	    throw new RuntimeException("Training task failed",batch.m_error);
+	}
+    }
+
+    protected void _work(){
+	while (true){
+	    Task task;
+	    synchronized(this){
+		while (this.m_queue.isEmpty() && !this.m_shutdown){
+		    try{
+			wait();
+		    } catch (InterruptedException e){
+			return;
+		    }
+		}
+		if (this.m_queue.isEmpty()){
+		    return;
+		}
+		task=this.m_queue.poll();
+		this.m_virtualTime=task.m_start;
+	    }
+
+	    long cpu=TimingUtils.getNanoCPUTimeOfCurrentThread();
+	    try{
+		task.m_work.run();
+	    } catch (Throwable t){
+		task.m_batch.m_error=t;
+	    }
+	    cpu=TimingUtils.getNanoCPUTimeOfCurrentThread()-cpu;
+
+	    synchronized(this){
+		task.m_flow.m_cpuTime+=cpu;
+		task.m_flow.m_tasks++;
+		this.m_cpuTime+=cpu;
+	    }
+	    task.m_batch.m_done.countDown();
+	}
+    }
+
+    public synchronized long cpuTime(int model){
+	return _flow(model).m_cpuTime;
+    }
+
+    // fraction of the runtime CPU time spent training the model
+    public synchronized double cpuShare(int model){
+	return (this.m_cpuTime==0) ? 0 : ((double)_flow(model).m_cpuTime)/this.m_cpuTime;
+    }
+
+    public synchronized String report(){
+	DecimalFormat nf4 = new DecimalFormat("0.0000");
+	DecimalFormat nf2 = new DecimalFormat("0.00");
+
+	StringBuilder sb=new StringBuilder();
+	sb.append("#\tWeight\tTasks\tCPU(s)\tShare\n");
+	for(int i=0;i<this.m_flows.size();i++){
+	    Flow f=this.m_flows.get(i);
+	    sb.append(i).append('\t')
+		.append(f.m_weight).append('\t')
+		.append(f.m_tasks).append('\t')
+		.append(nf2.format(TimingUtils.nanoTimeToSeconds(f.m_cpuTime))).append('\t')
+		.append(nf4.format(cpuShare(i))).append('\n');
+	}
+	return sb.toString();
+    }
+
+    // Queued tasks are still run
+    public synchronized void shutdown(){
+	this.m_shutdown=true;
+	notifyAll();
+    }
+}
@@ -27,6 +27,7 @@ import moa.core.DoubleVector;
 import moa.core.InstanceExample;
 import moa.core.Measurement;
 import moa.core.MiscUtils;
+import moa.core.Statistics;
 import moa.options.ClassOption;
 import moa.core.Example;
 import moa.core.Utils;
@@ -36,18 +37,31 @@ import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.Random;
 import java.util.Arrays;
 
 import moa.classifiers.trees.ARFHoeffdingTree;
+import moa.classifiers.trees.GovernedARFHoeffdingTree;
+import moa.classifiers.trees.HoeffdingTree;
 import moa.evaluation.BasicClassificationPerformanceEvaluator;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import moa.classifiers.core.driftdetection.ChangeDetector;
+import moa.classifiers.core.driftdetection.ADWIN;
+import moa.classifiers.core.driftdetection.CompactADWIN;
 import java.text.DecimalFormat;
 
 import java.io.Serializable;
@@ -229,9 +243,77 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    return (num/den);
 
 	}
+
+	// true if case and control accuracies differ at the test level
+	public boolean mcnemar(McnemarTest test){
+	    return test.significant(this.m_table[0][1],this.m_table[1][0]);
+	}
 	
     }
 
+
+    /////////////////////////////////////////////////////////////////////////////////////
+    //
+    //// MCNEMAR TEST
+    //
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // Two sided McNemar test at a fixed significance level on the
+    // discordant counts b, c (n=b+c). Up to s_EXACT_MAX discordant pairs
+    // it is the exact binomial mid-p test: under H0 min(b,c) ~ B(n,1/2),
+    // mid-p = 2*(P(X<k) + P(X=k)/2). Critical values for every n are
+    // computed once, so a check is a table lookup. Larger n use
+    // Edwards' continuity corrected statistic (|b-c|-1)^2/(b+c) against
+    // the chi-square critical value with one degree of freedom.
+    protected class McnemarTest{
+
+	protected static final int s_EXACT_MAX=25;
+
+	protected final double m_significance;
+	// significant iff min(b,c) <= m_critical[n] (-1: never)
+	protected final int[] m_critical;
+	protected final double m_chiSquare;
+
+	McnemarTest(double significance){
+	    this.m_significance=significance;
+	    this.m_critical=new int[s_EXACT_MAX+1];
+
+	    for(int n=0;n<=s_EXACT_MAX;n++){
+		this.m_critical[n]=-1;
+		double pmf=Math.pow(0.5,n); // P(X=0)
+		double cdf=0;               // P(X<k)
+		for(int k=0;2*k<=n;k++){
+		    double midp=2*(cdf + 0.5*pmf);
+		    if (midp>significance){
+			break;
+		    }
+		    this.m_critical[n]=k;
+		    cdf+=pmf;
+		    pmf=pmf*(n-k)/(k+1);
+		}
+	    }
+
+	    double z=Statistics.normalInverse(1.0-significance/2);
+	    this.m_chiSquare=z*z;
+	}
+
+	public double significance(){
+	    return this.m_significance;
+	}
+
+	public boolean significant(long b, long c){
+	    long n=b+c;
+	    if (n==0){
+		return false;
+	    }
+	    if (n<=s_EXACT_MAX){
+		return Math.min(b,c)<=this.m_critical[(int)n];
+	    }
+	    double num=Math.abs(b-c)-1.0;
+	    return (num*num/n)>=this.m_chiSquare;
+	}
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////
     //
     //// ELASTIC RANDOM FOREST CONFIRURATION
@@ -242,6 +324,9 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
 	//private static final long serialVersionUID = 1L;
 
+	// resize EMA window before emaWindow (see setEmaWindow)
+	protected static final int s_LEGACY_EMA_WINDOW=2000;
+
 	protected double m_lambda;
 	protected int   m_candidatesSize;
 	protected int   m_frontSize;
@@ -250,6 +335,41 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	protected int m_resizeFactor;
 	protected double m_shrinkThreshold;
 	protected double m_growThreshold;
+	protected int m_emaWindow;
+	protected double m_resizeHysteresis;
+	protected int m_resizeCooldown;
+	protected double m_resizeGain;
+	protected double m_resizeIntegralGain;
+	protected int m_maxResizeSteps;
+	// step table: m_penalty[i] applies from front size m_penaltySize[i]
+	protected int[] m_penaltySize;
+	protected double[] m_penalty;
+	protected double m_emaAlpha;
+	protected int m_learnerMetric;
+	protected int m_metricWindow;
+	protected double m_fadingFactor;
+	protected int m_topK;
+	protected boolean m_anytime;
+	protected long m_anytimeDeadline;
+	protected int m_parallelScoring;
+	protected int m_scoringThreads;
+	protected int m_candidateQueue;
+	protected int m_syncPeriod;
+	protected int m_maxStaleness;
+	protected int m_parallelTraining;
+	protected int m_shadowStep;
+	protected double m_shadowTolerance;
+	protected int m_shadowWarmup;
+	protected int m_controller;
+	protected double m_growSignificance;
+	protected double m_shrinkSignificance;
+	protected int m_candidateInterval;
+	protected int m_candidateMinSize;
+	protected int m_driftBurst;
+	protected int m_driftWindow;
+	protected double m_stormFraction;
+	protected int m_memoryLimit;
+	protected int m_memoryCheckPeriod;
 
 	
 	
@@ -268,6 +388,39 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
 	    this.m_shrinkThreshold=0.0;
 	    this.m_growThreshold=0.0;
+	    setEmaWindow(0);
+	    this.m_resizeHysteresis=0.0;
+	    this.m_resizeCooldown=0;
+	    this.m_resizeGain=0.0;
+	    this.m_resizeIntegralGain=0.0;
+	    this.m_maxResizeSteps=1;
+	    this.m_penaltySize=new int[0];
+	    this.m_penalty=new double[0];
+	    this.m_learnerMetric=s_METRIC_CUMULATIVE;
+	    this.m_metricWindow=1000;
+	    this.m_fadingFactor=0.999;
+	    this.m_topK=0;
+	    this.m_anytime=false;
+	    this.m_anytimeDeadline=0;
+	    this.m_parallelScoring=0;
+	    this.m_scoringThreads=0;
+	    this.m_candidateQueue=0;
+	    this.m_syncPeriod=1;
+	    this.m_maxStaleness=0;
+	    this.m_parallelTraining=0;
+	    this.m_shadowStep=0;
+	    this.m_shadowTolerance=0.0;
+	    this.m_shadowWarmup=0;
+	    this.m_controller=s_CONTROLLER_EMA;
+	    this.m_growSignificance=0.05;
+	    this.m_shrinkSignificance=0.05;
+	    this.m_candidateInterval=0;
+	    this.m_candidateMinSize=10;
+	    this.m_driftBurst=2;
+	    this.m_driftWindow=0;
+	    this.m_stormFraction=0.2;
+	    this.m_memoryLimit=0;
+	    this.m_memoryCheckPeriod=1000;
 	}
 
 	double getLambda() { return this.m_lambda; }
@@ -284,6 +437,140 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	void setGrowThreshold(double t){ this.m_growThreshold=t;}
 	double getGrowThreshold(){ return this.m_growThreshold; }
 
+	// weight of the new value in the resize EMAs: 1-exp(-1/window),
+	// larger windows smooth more. 0: legacy weight exp(-1/2000), close
+	// to 1 (the EMAs follow the last value)
+	void setEmaWindow(int w){
+	    this.m_emaWindow=w;
+	    this.m_emaAlpha=(w==0)
+		? Math.exp(-(1.0/s_LEGACY_EMA_WINDOW))
+		: 1.0-Math.exp(-(1.0/w));
+	}
+	int getEmaWindow(){ return this.m_emaWindow; }
+	double getEmaAlpha(){ return this.m_emaAlpha; }
+
+	void setResizeHysteresis(double h){ this.m_resizeHysteresis=h;}
+	double getResizeHysteresis(){ return this.m_resizeHysteresis; }
+
+	void setResizeCooldown(int n){ this.m_resizeCooldown=n;}
+	int getResizeCooldown(){ return this.m_resizeCooldown; }
+
+	void setResizeGain(double kp){ this.m_resizeGain=kp;}
+	double getResizeGain(){ return this.m_resizeGain; }
+
+	void setResizeIntegralGain(double ki){ this.m_resizeIntegralGain=ki;}
+	double getResizeIntegralGain(){ return this.m_resizeIntegralGain; }
+
+	void setMaxResizeSteps(int n){ this.m_maxResizeSteps=n;}
+	int getMaxResizeSteps(){ return this.m_maxResizeSteps; }
+
+	// "size:penalty,size:penalty,..." sorted by size, i.e "30:0.0005,50:0.001"
+	void setSizePenalty(String table){
+	    String t=table.trim();
+	    String[] entries=(t.length()==0) ? new String[0] : t.split(",");
+	    this.m_penaltySize=new int[entries.length];
+	    this.m_penalty=new double[entries.length];
+	    for(int i=0;i<entries.length;i++){
+		String[] kv=entries[i].split(":");
+		if (kv.length!=2){
+		    throw new IllegalArgumentException("Bad sizePenalty entry: "+entries[i]);
+		}
+		this.m_penaltySize[i]=Integer.parseInt(kv[0].trim());
+		this.m_penalty[i]=Double.parseDouble(kv[1].trim());
+		if ((i>0) && (this.m_penaltySize[i]<=this.m_penaltySize[i-1])){
+		    throw new IllegalArgumentException("sizePenalty sizes must increase: "+table);
+		}
+	    }
+	}
+
+	double getSizePenalty(int size){
+	    double p=0.0;
+	    for(int i=0;(i<this.m_penaltySize.length) && (this.m_penaltySize[i]<=size);i++){
+		p=this.m_penalty[i];
+	    }
+	    return p;
+	}
+
+	void setLearnerMetric(int m){ this.m_learnerMetric=m;}
+	int getLearnerMetric(){ return this.m_learnerMetric; }
+
+	void setMetricWindow(int w){ this.m_metricWindow=w;}
+	int getMetricWindow(){ return this.m_metricWindow; }
+
+	void setFadingFactor(double f){ this.m_fadingFactor=f;}
+	double getFadingFactor(){ return this.m_fadingFactor; }
+
+	void setTopK(int k){ this.m_topK=k;}
+	int getTopK(){ return this.m_topK; }
+
+	void setAnytime(boolean a){ this.m_anytime=a;}
+	boolean isAnytime(){ return this.m_anytime; }
+
+	void setAnytimeDeadline(long ns){ this.m_anytimeDeadline=ns;}
+	long getAnytimeDeadline(){ return this.m_anytimeDeadline; }
+
+	void setParallelScoring(int size){ this.m_parallelScoring=size;}
+	int getParallelScoring(){ return this.m_parallelScoring; }
+
+	void setScoringThreads(int t){ this.m_scoringThreads=t;}
+	int getScoringThreads(){ return this.m_scoringThreads; }
+
+	void setCandidateQueue(int size){ this.m_candidateQueue=size;}
+	int getCandidateQueue(){ return this.m_candidateQueue; }
+
+	void setSyncPeriod(int n){ this.m_syncPeriod=n;}
+	int getSyncPeriod(){ return this.m_syncPeriod; }
+
+	void setMaxStaleness(int n){ this.m_maxStaleness=n;}
+	int getMaxStaleness(){ return this.m_maxStaleness; }
+
+	void setParallelTraining(int size){ this.m_parallelTraining=size;}
+	int getParallelTraining(){ return this.m_parallelTraining; }
+
+	// shadow sizes: every step-th front size is evaluated (0: off)
+	void setShadowStep(int step){ this.m_shadowStep=step;}
+	int getShadowStep(){ return this.m_shadowStep; }
+
+	void setShadowTolerance(double t){ this.m_shadowTolerance=t;}
+	double getShadowTolerance(){ return this.m_shadowTolerance; }
+
+	void setShadowWarmup(int n){ this.m_shadowWarmup=n;}
+	int getShadowWarmup(){ return this.m_shadowWarmup; }
+
+	void setController(int c){ this.m_controller=c;}
+	int getController(){ return this.m_controller; }
+
+	void setGrowSignificance(double a){ this.m_growSignificance=a;}
+	double getGrowSignificance(){ return this.m_growSignificance; }
+
+	void setShrinkSignificance(double a){ this.m_shrinkSignificance=a;}
+	double getShrinkSignificance(){ return this.m_shrinkSignificance; }
+
+	// candidate group resize check period (0: fixed candidate group)
+	void setCandidateInterval(int n){ this.m_candidateInterval=n;}
+	int getCandidateInterval(){ return this.m_candidateInterval; }
+
+	void setCandidateMinSize(int n){ this.m_candidateMinSize=n;}
+	int getCandidateMinSize(){ return this.m_candidateMinSize; }
+
+	void setDriftBurst(int n){ this.m_driftBurst=n;}
+	int getDriftBurst(){ return this.m_driftBurst; }
+
+	// drift storms: learner resets counted over the last window
+	// instances (0: off)
+	void setDriftWindow(int n){ this.m_driftWindow=n;}
+	int getDriftWindow(){ return this.m_driftWindow; }
+
+	void setStormFraction(double f){ this.m_stormFraction=f;}
+	double getStormFraction(){ return this.m_stormFraction; }
+
+	// estimated bytes of all trees, in MB (0: no limit)
+	void setMemoryLimit(int mb){ this.m_memoryLimit=mb;}
+	int getMemoryLimit(){ return this.m_memoryLimit; }
+
+	void setMemoryCheckPeriod(int n){ this.m_memoryCheckPeriod=n;}
+	int getMemoryCheckPeriod(){ return this.m_memoryCheckPeriod; }
+
 	
 	
     }
@@ -340,12 +627,22 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
 	public ARFHoeffdingTree classifier;
         //public BasicClassificationPerformanceEvaluator evaluator;
-	public BasicAccuracy accuracy;
+	// accuracy lives in GroupEnsemble slot arrays
+	//public BasicAccuracy accuracy;
 
 	
         protected ClassOption driftOption;
 	protected ChangeDetector driftDetectionMethod;
 
+	// votes of the last instance scored, keyed by its sequence number
+	// (policy instancesSeen), invalidated whenever the tree changes
+	protected double[] cachedVotes;
+	protected long cachedSeq;
+
+	// legacy: drift detector fed with the post-training prediction
+	// (one more tree traversal per learner and instance)
+	protected boolean postTrainDriftInput;
+
 	
 	public ElasticBaseLearner(int indexOriginal,
 				  ARFHoeffdingTree instantiatedClassifier,
@@ -355,7 +652,8 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 				  boolean useDriftDetector,
 				  ClassOption driftOption,
 				  //ClassOption warningOption,
-				  boolean isBackgroundLearner) {
+				  boolean isBackgroundLearner,
+				  boolean postTrainDriftInput) {
 
 	    
             this.indexOriginal = indexOriginal;
@@ -366,25 +664,52 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    this.classifier = instantiatedClassifier;
 	    //this.evaluator = evaluatorInstantiated;
 
-	    this.accuracy = new BasicAccuracy();
-	    
 	    this.driftOption = driftOption;
 	    this.driftDetectionMethod=((ChangeDetector)getPreparedClassOption(this.driftOption)).copy();
 
 	    this.instancesSeen=instancesSeen;
+
+	    this.cachedSeq=-1;
+	    this.postTrainDriftInput=postTrainDriftInput;
 	}
 
 	
 
 	public void reset(){
-            this.accuracy.reset();
 	    this.classifier.resetLearning();
 	    this.createdOn=instancesSeen;
 	    this.driftDetectionMethod=((ChangeDetector) getPreparedClassOption(this.driftOption)).copy();
+	    this.cachedSeq=-1;
+
+	}
+
+	// Training cost per instance, estimated from the tree size: nodes
+	// traversed plus active leaves (the ones updating split statistics).
+	// Read from the tree counters; 1 for other learners
+	public double cost(){
+	    if (!(this.classifier instanceof HoeffdingTree)){
+		return 1.0;
+	    }
+	    HoeffdingTree t=(HoeffdingTree)this.classifier;
+	    return GovernedARFHoeffdingTree.nodeCount(t)
+		+ GovernedARFHoeffdingTree.activeLeafCount(t);
+	}
 
+	// Estimated tree memory (bytes). Node counters and, with
+	// GovernedARFHoeffdingTree, its leaf estimates
+	public double bytes(){
+	    if (this.classifier instanceof GovernedARFHoeffdingTree){
+		return ((GovernedARFHoeffdingTree)this.classifier).byteSize();
+	    }
+	    if (!(this.classifier instanceof HoeffdingTree)){
+		return 0.0;
+	    }
+	    return GovernedARFHoeffdingTree.nodeCount((HoeffdingTree)this.classifier)
+		*GovernedARFHoeffdingTree.s_SPLIT_NODE_BYTES;
 	}
 	
-        public void trainOnInstance(Instance instance, double weight, long instancesSeen) {
+	// returns true if the learner was reset (drift detected)
+        public boolean trainOnInstance(Instance instance, double weight, long instancesSeen) {
 	    this.instancesSeen=instancesSeen;
 
 	    //Instance instance = (Instance) instance2.copy();
@@ -399,17 +724,26 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    this.classifier.trainOnInstance(instance);
 
 	    instance.setWeight(original_weight);
-	    
-	    boolean correctlyClassifies=this.classifier.correctlyClassifies(instance);
+
+	    // drift input from the vote computed before training this
+	    // instance when there is one (same as the accuracy estimate)
+	    boolean correctlyClassifies;
+	    if ((!this.postTrainDriftInput) && (this.cachedSeq==instancesSeen)){
+		correctlyClassifies=(Utils.maxIndex(this.cachedVotes)==(int)instance.classValue());
+	    } else {
+		correctlyClassifies=this.classifier.correctlyClassifies(instance);
+	    }
+	    this.cachedSeq=-1;
 	    this.driftDetectionMethod.input(correctlyClassifies ? 0 : 1);
 
 	    // Check if there was a change
 	    if(this.driftDetectionMethod.getChange()) {
 		this.lastDriftOn = instancesSeen;
 		this.reset();
+		return true;
 	    }
 	    
-		    
+	    return false;
         }
 
 	
@@ -423,6 +757,16 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
             return vote.getArrayRef();
 	    */
 	}
+
+	// cached: the tree is traversed once per sequence number.
+	// The returned array is shared, callers must not modify it.
+	public double[] getVotesForInstance(Instance instance, long seq) {
+	    if (this.cachedSeq!=seq){
+		this.cachedVotes=this.classifier.getVotesForInstance(instance);
+		this.cachedSeq=seq;
+	    }
+	    return this.cachedVotes;
+	}
 	
 	
     }
@@ -441,6 +785,7 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	protected ClassOption m_learnerClassOption;
 	protected ClassOption m_driftDetectionMethod;
 	//protected ClassOption m_warningDetectionMethod;
+	protected boolean m_postTrainDriftInput;
 
 	protected int m_subspace;
 	protected BasicClassificationPerformanceEvaluator m_classificationEvaluator;
@@ -469,6 +814,10 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    this.m_baseLearner.subspaceSizeOption.setValue(size);
 	}
 
+	public void setPostTrainDriftInput(boolean postTrain){
+	    this.m_postTrainDriftInput=postTrain;
+	}
+
 	
 	public ElasticBaseLearner alloc(int id, long instancesSeen){
 
@@ -481,7 +830,8 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 					  true, // use drift
 					  this.m_driftDetectionMethod,
 					  //this.m_warningDetectionMethod,
-					  false);
+					  false,
+					  this.m_postTrainDriftInput);
 	    
 	}
 
@@ -509,21 +859,368 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
     /////////////////////////////////////////////////////////////////////////////////////
 
     
-    protected static class Metric{
-	static public double getMetric(ElasticBaseLearner l){
-	    return 0;
+    // Score used by GroupEnsemble selection (findMin/findMax/selectiveSort)
+    // and by the swap policy. Higher is better. Votes are still
+    // weighted by the slot accuracy.
+    //
+    // GroupEnsemble keeps it in a final field, so with one
+    // implementation per run the call site stays monomorphic and the JIT
+    // inlines it. Metrics with their own slot state keep it as the
+    // AccuracyEstimators do: initGroup/reset/swap, add() per result.
+    protected interface Metric{
+	public double getMetric(GroupEnsemble en, int Group, int idx);
+
+	public void initGroup(int Group,int maxElements);
+	public void reset(int Group,int idx);
+	public void swap(int Group1, int Idx1, int Group2, int Idx2);
+	public void add(int Group,int idx,int trueClass,int predictedClass);
+    }
+
+    // the slot accuracy (-m estimator)
+    protected final class MetricAccuracy implements Metric{
+	@Override
+	public double getMetric(GroupEnsemble en, int Group, int idx){
+	    return en.m_accuracy[Group][idx];
 	}
+
+	@Override
+	public void initGroup(int Group,int maxElements){}
+	@Override
+	public void reset(int Group,int idx){}
+	@Override
+	public void swap(int Group1, int Idx1, int Group2, int Idx2){}
+	@Override
+	public void add(int Group,int idx,int trueClass,int predictedClass){}
     }
 
-    protected static class MetricAccuracy extends Metric{
-	//@Override
-	static public double getMetric(ElasticBaseLearner l){
-	    return l.accuracy.get();
+    // Cohen's kappa since last reset: accuracy over the one expected
+    // from the class frequencies of the labels and the predictions,
+    //   k = (p0-pe)/(1-pe), pe = sum_c true_c*pred_c/n^2
+    // so a learner that only predicts the majority class scores 0.
+    // Per class counts are one long[] per slot. NaN before the first
+    // result
+    protected final class MetricKappa implements Metric{
+
+	protected final int m_classes;
+	protected long[][] m_seen;
+	protected long[][] m_correct;
+	protected long[][][] m_true;
+	protected long[][][] m_pred;
+
+	MetricKappa(int groups, int classes){
+	    this.m_classes=classes;
+	    this.m_seen=new long[groups][];
+	    this.m_correct=new long[groups][];
+	    this.m_true=new long[groups][][];
+	    this.m_pred=new long[groups][][];
+	}
+
+	@Override
+	public double getMetric(GroupEnsemble en, int Group, int idx){
+	    long n=this.m_seen[Group][idx];
+	    if (n==0){
+		return Double.NaN;
+	    }
+	    long[] t=this.m_true[Group][idx];
+	    long[] p=this.m_pred[Group][idx];
+	    double pe=0;
+	    for(int c=0;c<this.m_classes;c++){
+		pe+=(double)t[c]*p[c];
+	    }
+	    pe/=(double)n*n;
+	    if (pe>=1.0){
+		// one class only: no agreement beyond chance
+		return 0.0;
+	    }
+	    double p0=(double)this.m_correct[Group][idx]/n;
+	    return (p0-pe)/(1.0-pe);
+	}
+
+	@Override
+	public void initGroup(int Group,int maxElements){
+	    this.m_seen[Group]=new long[maxElements];
+	    this.m_correct[Group]=new long[maxElements];
+	    this.m_true[Group]=new long[maxElements][this.m_classes];
+	    this.m_pred[Group]=new long[maxElements][this.m_classes];
+	}
+
+	@Override
+	public void reset(int Group,int idx){
+	    this.m_seen[Group][idx]=0;
+	    this.m_correct[Group][idx]=0;
+	    Arrays.fill(this.m_true[Group][idx],0L);
+	    Arrays.fill(this.m_pred[Group][idx],0L);
+	}
+
+	@Override
+	public void swap(int Group1, int Idx1, int Group2, int Idx2){
+	    long n=this.m_seen[Group1][Idx1];
+	    this.m_seen[Group1][Idx1]=this.m_seen[Group2][Idx2];
+	    this.m_seen[Group2][Idx2]=n;
+
+	    long c=this.m_correct[Group1][Idx1];
+	    this.m_correct[Group1][Idx1]=this.m_correct[Group2][Idx2];
+	    this.m_correct[Group2][Idx2]=c;
+
+	    long[] t=this.m_true[Group1][Idx1];
+	    this.m_true[Group1][Idx1]=this.m_true[Group2][Idx2];
+	    this.m_true[Group2][Idx2]=t;
+
+	    long[] p=this.m_pred[Group1][Idx1];
+	    this.m_pred[Group1][Idx1]=this.m_pred[Group2][Idx2];
+	    this.m_pred[Group2][Idx2]=p;
 	}
 
+	@Override
+	public void add(int Group,int idx,int trueClass,int predictedClass){
+	    this.m_seen[Group][idx]++;
+	    if (trueClass==predictedClass){
+		this.m_correct[Group][idx]++;
+	    }
+	    if (trueClass<this.m_classes){
+		this.m_true[Group][idx][trueClass]++;
+	    }
+	    if (predictedClass<this.m_classes){
+		this.m_pred[Group][idx][predictedClass]++;
+	    }
+	}
     }
     
     
+    /////////////////////////////////////////////////////////////////////////////////////
+    //
+    //// LEARNER ACCURACY ESTIMATORS
+    //
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // Per slot accuracy estimation for GroupEnsemble. State is kept in
+    // per group arrays (indexed by slot) and exchanged on swap.
+    // add() is O(1) and does not allocate.
+    protected abstract class AccuracyEstimator{
+
+	protected int m_groups;
+
+	AccuracyEstimator(int groups){
+	    this.m_groups=groups;
+	}
+
+	abstract void initGroup(int Group,int maxElements);
+	abstract void reset(int Group,int idx);
+	abstract void swap(int Group1, int Idx1, int Group2, int Idx2);
+
+	// returns the new estimation
+	abstract double add(int Group,int idx,boolean correct);
+    }
+
+
+    // Accuracy since last reset (BasicAccuracy)
+    protected class CumulativeAccuracy extends AccuracyEstimator{
+
+	protected long[][] m_correct;
+	protected long[][] m_seen;
+
+	CumulativeAccuracy(int groups){
+	    super(groups);
+	    this.m_correct=new long[groups][];
+	    this.m_seen=new long[groups][];
+	}
+
+	void initGroup(int Group,int maxElements){
+	    this.m_correct[Group]=new long[maxElements];
+	    this.m_seen[Group]=new long[maxElements];
+	}
+
+	void reset(int Group,int idx){
+	    this.m_correct[Group][idx]=0;
+	    this.m_seen[Group][idx]=0;
+	}
+
+	double add(int Group,int idx,boolean correct){
+	    if (correct){
+		this.m_correct[Group][idx]++;
+	    }
+	    this.m_seen[Group][idx]++;
+	    return (double)this.m_correct[Group][idx]/this.m_seen[Group][idx];
+	}
+
+	void swap(int Group1, int Idx1, int Group2, int Idx2){
+	    long c=this.m_correct[Group1][Idx1];
+	    this.m_correct[Group1][Idx1]=this.m_correct[Group2][Idx2];
+	    this.m_correct[Group2][Idx2]=c;
+
+	    long n=this.m_seen[Group1][Idx1];
+	    this.m_seen[Group1][Idx1]=this.m_seen[Group2][Idx2];
+	    this.m_seen[Group2][Idx2]=n;
+	}
+    }
+
+
+    // Accuracy over the last W results.
+    // Results are kept in a circular bitset (one long[] per slot)
+    protected class WindowAccuracy extends AccuracyEstimator{
+
+	protected int m_window;
+	protected long[][][] m_bits;
+	protected int[][] m_pos;
+	protected int[][] m_count;
+	protected int[][] m_correct;
+
+	WindowAccuracy(int groups, int window){
+	    super(groups);
+	    this.m_window=window;
+	    this.m_bits=new long[groups][][];
+	    this.m_pos=new int[groups][];
+	    this.m_count=new int[groups][];
+	    this.m_correct=new int[groups][];
+	}
+
+	void initGroup(int Group,int maxElements){
+	    int words=(this.m_window+63)>>>6;
+	    this.m_bits[Group]=new long[maxElements][words];
+	    this.m_pos[Group]=new int[maxElements];
+	    this.m_count[Group]=new int[maxElements];
+	    this.m_correct[Group]=new int[maxElements];
+	}
+
+	void reset(int Group,int idx){
+	    Arrays.fill(this.m_bits[Group][idx],0L);
+	    this.m_pos[Group][idx]=0;
+	    this.m_count[Group][idx]=0;
+	    this.m_correct[Group][idx]=0;
+	}
+
+	double add(int Group,int idx,boolean correct){
+	    long[] bits=this.m_bits[Group][idx];
+	    int pos=this.m_pos[Group][idx];
+	    int word=pos>>>6;
+	    long mask=1L<<(pos&63);
+
+	    if (this.m_count[Group][idx]==this.m_window){
+		// drop oldest
+		if ((bits[word] & mask)!=0){
+		    this.m_correct[Group][idx]--;
+		}
+	    }else{
+		this.m_count[Group][idx]++;
+	    }
+
+	    if (correct){
+		bits[word]|=mask;
+		this.m_correct[Group][idx]++;
+	    }else{
+		bits[word]&=~mask;
+	    }
+
+	    pos++;
+	    this.m_pos[Group][idx]=(pos==this.m_window) ? 0 : pos;
+
+	    return (double)this.m_correct[Group][idx]/this.m_count[Group][idx];
+	}
+
+	void swap(int Group1, int Idx1, int Group2, int Idx2){
+	    long[] b=this.m_bits[Group1][Idx1];
+	    this.m_bits[Group1][Idx1]=this.m_bits[Group2][Idx2];
+	    this.m_bits[Group2][Idx2]=b;
+
+	    int p=this.m_pos[Group1][Idx1];
+	    this.m_pos[Group1][Idx1]=this.m_pos[Group2][Idx2];
+	    this.m_pos[Group2][Idx2]=p;
+
+	    int n=this.m_count[Group1][Idx1];
+	    this.m_count[Group1][Idx1]=this.m_count[Group2][Idx2];
+	    this.m_count[Group2][Idx2]=n;
+
+	    int c=this.m_correct[Group1][Idx1];
+	    this.m_correct[Group1][Idx1]=this.m_correct[Group2][Idx2];
+	    this.m_correct[Group2][Idx2]=c;
+	}
+    }
+
+
+    // Fading factor accuracy:
+    //   S = f*S + x
+    //   N = f*N + 1
+    //   acc = S/N
+    protected class FadingAccuracy extends AccuracyEstimator{
+
+	protected double m_factor;
+	protected double[][] m_sum;
+	protected double[][] m_n;
+
+	FadingAccuracy(int groups, double factor){
+	    super(groups);
+	    this.m_factor=factor;
+	    this.m_sum=new double[groups][];
+	    this.m_n=new double[groups][];
+	}
+
+	void initGroup(int Group,int maxElements){
+	    this.m_sum[Group]=new double[maxElements];
+	    this.m_n[Group]=new double[maxElements];
+	}
+
+	void reset(int Group,int idx){
+	    this.m_sum[Group][idx]=0;
+	    this.m_n[Group][idx]=0;
+	}
+
+	double add(int Group,int idx,boolean correct){
+	    double sum=this.m_factor*this.m_sum[Group][idx] + (correct ? 1 : 0);
+	    double n=this.m_factor*this.m_n[Group][idx] + 1;
+	    this.m_sum[Group][idx]=sum;
+	    this.m_n[Group][idx]=n;
+	    return sum/n;
+	}
+
+	void swap(int Group1, int Idx1, int Group2, int Idx2){
+	    double s=this.m_sum[Group1][Idx1];
+	    this.m_sum[Group1][Idx1]=this.m_sum[Group2][Idx2];
+	    this.m_sum[Group2][Idx2]=s;
+
+	    double n=this.m_n[Group1][Idx1];
+	    this.m_n[Group1][Idx1]=this.m_n[Group2][Idx2];
+	    this.m_n[Group2][Idx2]=n;
+	}
+    }
+
+
+    // ADWIN estimated accuracy (CompactADWIN, same estimation).
+    // A window only allocates when it needs more bucket rows than it
+    // ever had: reset keeps the arrays.
+    protected class AdwinAccuracy extends AccuracyEstimator{
+
+	protected CompactADWIN[][] m_adwin;
+
+	AdwinAccuracy(int groups){
+	    super(groups);
+	    this.m_adwin=new CompactADWIN[groups][];
+	}
+
+	void initGroup(int Group,int maxElements){
+	    this.m_adwin[Group]=new CompactADWIN[maxElements];
+	    for(int i=0;i<maxElements;i++){
+		this.m_adwin[Group][i]=new CompactADWIN(ADWIN.DELTA);
+	    }
+	}
+
+	void reset(int Group,int idx){
+	    this.m_adwin[Group][idx].reset();
+	}
+
+	double add(int Group,int idx,boolean correct){
+	    CompactADWIN adwin=this.m_adwin[Group][idx];
+	    adwin.setInput(correct ? 1 : 0);
+	    return adwin.getEstimation();
+	}
+
+	void swap(int Group1, int Idx1, int Group2, int Idx2){
+	    CompactADWIN a=this.m_adwin[Group1][Idx1];
+	    this.m_adwin[Group1][Idx1]=this.m_adwin[Group2][Idx2];
+	    this.m_adwin[Group2][Idx2]=a;
+	}
+    }
+
+    
     /////////////////////////////////////////////////////////////////////////////////////
     //
     //// Group ENSEMBLE
@@ -590,10 +1287,24 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	protected int[] m_groupMinElements;
 	protected int[] m_groupCurrentElements;
 
+	// Per slot accuracy (structure of arrays).
+	// Travels with the learner on swap
+	protected AccuracyEstimator m_estimator;
+	protected double[][] m_accuracy;
+
+	protected final Metric m_metric;
+
+	// selectTop buffers
+	protected int[] m_heapIdx;
+	protected double[] m_heapVal;
+	protected int[] m_topIdx;
+
 	protected learnerAllocator m_learnerAllocator;
 	
 	public GroupEnsemble(int MaxGroups, int maxElements,
-			     learnerAllocator allocator){
+			     learnerAllocator allocator,
+			     AccuracyEstimator estimator,
+			     Metric metric){
 
 	    this.m_maxGroups=MaxGroups;
 	    this.m_maxSize=maxElements;
@@ -603,6 +1314,12 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    m_groupMaxElements = new int[this.m_maxGroups];
 	    m_groupMinElements = new int[this.m_maxGroups];
 	    m_groupCurrentElements = new int[this.m_maxGroups];
+	    m_accuracy = new double[this.m_maxGroups][];
+	    this.m_estimator = estimator;
+	    this.m_metric = metric;
+	    this.m_heapIdx = new int[this.m_maxSize];
+	    this.m_heapVal = new double[this.m_maxSize];
+	    this.m_topIdx = new int[this.m_maxSize];
 	    this.m_currentSize=0;
 	}
 
@@ -626,6 +1343,9 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    m_groupCurrentElements[Group]=0;
 
 	    m_group[Group] = new ElasticBaseLearner[m_groupMaxElements[Group]];
+	    m_accuracy[Group] = new double[m_groupMaxElements[Group]];
+	    m_estimator.initGroup(Group,m_groupMaxElements[Group]);
+	    m_metric.initGroup(Group,m_groupMaxElements[Group]);
 
 	    int growFactor=Math.max(minSize,initialSize);
 	    grow(Group,growFactor);
@@ -639,6 +1359,32 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    return m_group[Group][idx];
 	}
 
+	public double accuracy(int Group,int idx){
+	    return m_accuracy[Group][idx];
+	}
+
+	public double metric(int Group,int idx){
+	    return this.m_metric.getMetric(this,Group,idx);
+	}
+
+	public void addResult(int Group,int idx,int trueClass,int predictedClass){
+	    this.m_accuracy[Group][idx]=this.m_estimator.add(Group,idx,
+							     trueClass==predictedClass);
+	    this.m_metric.add(Group,idx,trueClass,predictedClass);
+	}
+
+	// NaN until the first result, as BasicAccuracy.get()
+	public void resetAccuracy(int Group,int idx){
+	    this.m_estimator.reset(Group,idx);
+	    this.m_metric.reset(Group,idx);
+	    this.m_accuracy[Group][idx]=Double.NaN;
+	}
+
+	public void reset(int Group,int idx){
+	    this.m_group[Group][idx].reset();
+	    resetAccuracy(Group,idx);
+	}
+
 	
 	
 	
@@ -667,6 +1413,7 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    int e=s+factor;
 	    for(int i=s;i<e;i++){
 		this.m_group[Group][i]=this.m_learnerAllocator.alloc(i,0);
+		resetAccuracy(Group,i);
 	    }
 	    this.m_groupCurrentElements[Group]=e;
 	    this.m_currentSize+=factor;
@@ -708,91 +1455,119 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    int s=groupSize(Group);
 	    System.out.print("[GROUP:"+Group+"] ");
 	    for(int i=0;i<s;i++){
-		double acc=this.m_group[Group][i].accuracy.get();
+		double acc=this.m_accuracy[Group][i];
 		System.out.print(nf4.format(acc) + ", ");
 	    }
 	    System.out.println("");
 	}
 
 
-	public int findMin2(int Group){
-	    return this.<MetricAccuracy>findMin3(Group);
-	}
-
-	//public <T extends Metric> int findMin3(int Group, Class<T> metric_type){
-	//public <T extends Metric> int findMin3(int Group, T metric_type){
-	public <T extends Metric> int findMin3(int Group){
+	// Writes the indices of the k best elements (by m_metric) in
+	// out[0..k), best first. Returns the number of indices written.
+	// Bounded min-heap: O(n log k), metric read once per element,
+	// no element is moved. NaN ranks last.
+	public int selectTop(int Group, int k, int[] out){
 
 	    int s=groupSize(Group);
-
-	    double minValue=T.getMetric(this.m_group[Group][0]);
-	    //double minValue=metric_type.getMetric(this.m_group[Group][0]);
-	    //double minValue=Clazz<T>.getMetric(this.m_group[Group][0]);
-	    int minValueIdx=0;
+	    k=Math.min(k,s);
+	    if (k<=0){
+		return 0;
+	    }
 	    
-	    for(int i=1;i<s;i++){
-		double v=this.m_group[Group][i].accuracy.get();
-		
-		if (v<minValue){
-		    minValue=v;
-		    minValueIdx=i;
+	    final Metric m=this.m_metric;
+	    int[] hIdx=this.m_heapIdx;
+	    double[] hVal=this.m_heapVal;
+	    int hSize=0;
+
+	    for(int i=0;i<s;i++){
+		double v=m.getMetric(this,Group,i);
+		if (Double.isNaN(v)){
+		    v=Double.NEGATIVE_INFINITY;
+		}
+
+		if (hSize<k){
+		    // sift up
+		    int c=hSize++;
+		    while (c>0){
+			int p=(c-1)>>>1;
+			if (hVal[p]<=v){
+			    break;
+			}
+			hVal[c]=hVal[p];
+			hIdx[c]=hIdx[p];
+			c=p;
+		    }
+		    hVal[c]=v;
+		    hIdx[c]=i;
+		}else if (v>hVal[0]){
+		    _siftDown(hIdx,hVal,hSize,i,v);
 		}
 	    }
-	    return minValueIdx;
-    
+
+	    // pop in ascending order, fill out from the end
+	    for(int n=hSize-1;n>=0;n--){
+		out[n]=hIdx[0];
+		_siftDown(hIdx,hVal,n,hIdx[n],hVal[n]);
+	    }
+	    return k;
 	}
 
-	/*
-	public int findMin(int Group,Metric m){
-	    int s=groupSize(Group);
-	    
-	    double minValue=m.getMetric(this.m_group[Group][0]);
-	    int minValueIdx=0;
-	    
-	    for(int i=1;i<s;i++){
-		double v=this.m_group[Group][i].accuracy.get();
-		
-		if (v<minValue){
-		    minValue=v;
-		    minValueIdx=i;
+	// replaces heap root with (idx,v) and restores the heap of size n
+	private void _siftDown(int[] hIdx, double[] hVal, int n,
+			       int idx, double v){
+	    int c=0;
+	    while (true){
+		int l=2*c+1;
+		if (l>=n){
+		    break;
 		}
+		int r=l+1;
+		int min=((r<n) && (hVal[r]<hVal[l])) ? r : l;
+		if (hVal[min]>=v){
+		    break;
+		}
+		hVal[c]=hVal[min];
+		hIdx[c]=hIdx[min];
+		c=min;
 	    }
-	    return minValueIdx;
+	    hVal[c]=v;
+	    hIdx[c]=idx;
 	}
-	*/
 
 	// Puts N best elements in N first positions
 	public void selectiveSort(int Group, int elements){
 
-	    int s=groupSize(Group);
+	    int[] top=this.m_topIdx;
+	    int k=selectTop(Group,elements,top);
 	    
-	    int pivot=0;
-	    while (pivot < elements){
-		for(int i=(pivot+1);i<s;i++){
-		    double i_val=this.m_group[Group][i].accuracy.get();
-		    double pivot_val=this.m_group[Group][pivot].accuracy.get();
-
-		    if (pivot_val<i_val){
-			swap(Group,i,
-			     Group,pivot);
+	    for(int pos=0;pos<k;pos++){
+		int src=top[pos];
+		if (src==pos){
+		    continue;
+		}
+		swap(Group,pos,
+		     Group,src);
+		// element formerly at pos is now at src
+		for(int j=pos+1;j<k;j++){
+		    if (top[j]==pos){
+			top[j]=src;
+			break;
 		    }
-		
 		}
-		pivot++;
 	    }
 	    
 	}	    
 	
-	// TODO findMin/Max should get metric obj, function
-	// as a template or param
+	// findMin/Max use m_metric
 	public int findMin(int Group){
 	    int s=groupSize(Group);
+	    final Metric m=this.m_metric;
 	    
-	    double minValue=this.m_group[Group][0].accuracy.get();
+	    double minValue=m.getMetric(this,Group,0);
 	    int minValueIdx=0;
 	    
 	    for(int i=1;i<s;i++){
-		double v=this.m_group[Group][i].accuracy.get();
+		double v=m.getMetric(this,Group,i);
 		
 		if (v<minValue){
 		    minValue=v;
@@ -804,13 +1579,14 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
 	public int findMax(int Group){
 	    int s=groupSize(Group);
+	    final Metric m=this.m_metric;
 
-	    double maxValue=this.m_group[Group][0].accuracy.get();
+	    double maxValue=m.getMetric(this,Group,0);
 	    int maxValueIdx=0;
 		
     	    for(int i=1;i<s;i++){
 		
-		double v=this.m_group[Group][i].accuracy.get();
+		double v=m.getMetric(this,Group,i);
 		if (v>maxValue){
 		    maxValue=v;
 		    maxValueIdx=i;
@@ -822,8 +1598,9 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
 	public int findMaxSkip(int Group){
 	    int s=groupSize(Group);
+	    final Metric m=this.m_metric;
 
-	    double maxValue=this.m_group[Group][0].accuracy.get();
+	    double maxValue=m.getMetric(this,Group,0);
 	    int maxValueIdx=0;
 		
     	    for(int i=1;i<s;i++){
@@ -831,7 +1608,7 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 		if (this.m_group[Group][i].instancesSeen<20){
 		    continue;
 		}
-		double v=this.m_group[Group][i].accuracy.get();
+		double v=m.getMetric(this,Group,i);
 		if (v>maxValue){
 		    maxValue=v;
 		    maxValueIdx=i;
@@ -878,6 +1655,13 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    ElasticBaseLearner l=this.m_group[Group1][Idx1];
 	    this.m_group[Group1][Idx1]=this.m_group[Group2][Idx2];
 	    this.m_group[Group2][Idx2]=l;
+
+	    this.m_estimator.swap(Group1,Idx1,Group2,Idx2);
+	    this.m_metric.swap(Group1,Idx1,Group2,Idx2);
+
+	    double a=this.m_accuracy[Group1][Idx1];
+	    this.m_accuracy[Group1][Idx1]=this.m_accuracy[Group2][Idx2];
+	    this.m_accuracy[Group2][Idx2]=a;
 	}
 
 
@@ -906,7 +1690,8 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	// 0          if noop
 	// positive   should grow
 	// negative   should shrink
-	public int shouldResize();
+	// frontSize: current front group size
+	public int shouldResize(int frontSize);
 
 	public void reset();
 	public void grow();
@@ -916,38 +1701,31 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
     }
 
     
+    // Bias-corrected EMA on primitives. alpha is the weight of the new
+    // value, precomputed by ElasticConfig from emaWindow:
+    //   m = (1-alpha)*m + alpha*value        returns m/(1-(1-alpha)^n)
+    // The correction makes the first value exact (no seeding case).
     class ExponentialMovingAverage {
-	private Double old_value;
-	private double N;
+	private final double m_alpha;
+	private final double m_beta;
+	private double m_value;
+	private double m_betaPow;
 	
-	public ExponentialMovingAverage() {
+	public ExponentialMovingAverage(double alpha) {
+	    this.m_alpha=alpha;
+	    this.m_beta=1.0-alpha;
 	    reset();
 	}
 
 	void reset(){
-	    N=0;
-	    old_value=null;
+	    this.m_value=0;
+	    this.m_betaPow=1.0;
 	}
 
 	public double add_value(double value) {
-	    if (old_value == null) {
-		old_value = value;
-		return value;
-	    }
-
-	    //double alpha = 2.0 / (N+1);
-	    //double new_value = old_value + alpha * (value - old_value);
-
-	    //double window= 1000; // ORIG
-	    double window= 2000;
-	    double alpha = Math.exp(-(1/window));
-	    double new_value = old_value + alpha * (value - old_value);
-
-	    //double new_value = alpha*value + (1-alpha) * (old_value);
-
-	    N++;
-	    old_value = new_value;
-	    return new_value;
+	    this.m_value=this.m_beta*this.m_value + this.m_alpha*value;
+	    this.m_betaPow*=this.m_beta;
+	    return this.m_value/(1.0-this.m_betaPow);
 	}
 	
 	
@@ -976,15 +1754,21 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
 	protected int cross_shrink;
 	protected int cross_grow;
+	// last operation: 1 grow, -1 shrink, 0 none
+	protected int last_operation;
+	// PI resize: sum of the band excess of consecutive decisions
+	// in the same direction
+	protected double resize_integral;
+	protected int resize_direction;
 	protected ElasticConfig m_config;
 	
 	
 	public EmaElastic(ElasticConfig config){
 
 	    this.m_config = config;
-	    _shrink = new ExponentialMovingAverage();
-	    _default = new ExponentialMovingAverage();
-	    _grow = new ExponentialMovingAverage();
+	    _shrink = new ExponentialMovingAverage(config.getEmaAlpha());
+	    _default = new ExponentialMovingAverage(config.getEmaAlpha());
+	    _grow = new ExponentialMovingAverage(config.getEmaAlpha());
 	    cross_shrink=0;
 	    cross_grow=0;
 	    
@@ -1041,281 +1825,83 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	// 0          if noop
 	// positive   should grow
 	// negative   should shrink
-	public int shouldResize(){
-
-	    double delta_shrink = ema_shrink - ema_default; // +mod;
-	    double delta_grow = ema_grow - ema_default;// +mod;
+	// the magnitude is the number of resizeFactor steps (see _steps)
+	//
+	// The gap of the shrunk/grown ensemble over the default one must
+	// exceed the band of the operation:
+	//   grow:   GrowThreshold   + sizePenalty(front size)
+	//   shrink: ShrinkThreshold
+	// plus resizeHysteresis when the operation reverses the last one.
+	// Nothing happens for resizeCooldown instances after an operation.
+	public int shouldResize(int frontSize){
+
+	    if ((last_operation!=0)
+		&& (instancesSeen < this.m_config.getResizeCooldown())){
+		return 0;
+	    }
 
-	    
-	    //mirar esto: hacer mas dificil crecer cuando el tamaño es grande.
-	    //double mod = 1.0 - (double)operations/100.0;
-	    double mod = 1.0 - (double)operations/100.0;
-	    mod=mod/100;
-	    mod=0.0;
-	    
-	    if(operations >=70)
-		mod=0.01;
-
-	    if(operations >=60)
-		mod=0.005;
-	    
-	    if(operations >=50)
-		mod=0.001;
-
-	    if(operations >=40)
-		mod=0.0005;
-
-	    if(operations >=30)
-		mod=0.0001;
-
-
-	    
-	    if (operations <=50)
-		mod/=2;
+	    double delta_shrink = ema_shrink - ema_default;
+	    double delta_grow = ema_grow - ema_default;
 
-	    /*
-	    mod=0.001;
-	    
-	    //mod = 
-	    double inv_mod = mod +1.0;
-	    //mod*=2;
-	    //double mod = 0.0;
+	    double gband=this.m_config.getGrowThreshold()
+		+ this.m_config.getSizePenalty(frontSize);
+	    double sband=this.m_config.getShrinkThreshold();
 
-	    System.out.println("ShouldResize> operation:" + operations
-			       + " | mods:" + mod 
-			       + " | inv mods:" + inv_mod );
-	    
-	    if (delta_grow > mod){
-		if(delta_shrink<=mod){
-		    return 1;
-		}
+	    if (last_operation<0){
+		gband+=this.m_config.getResizeHysteresis();
 	    }
-
-	    if (delta_shrink> mod){
-		if(delta_grow<=mod){
-		    return -1;
-		}
+	    if (last_operation>0){
+		sband+=this.m_config.getResizeHysteresis();
 	    }
-	    */
-	    
-	    mod=0.0001;
-
-	    //73.5605 :: 16.943791111111        5.1928126184455 10      28
-	    // 39m2s (CPU time)
-	    // 152 ==>GROW
-	    // 136 ==>SRHINK
-	    //double smod=0.001;
-	    //double gmod=0.001;
-
-	    // 73.59369000000001 :: 17.559027666667      2.6460623284159 10      40
-	    // Task completed in 40m3s (CPU time)
-	    // 327 ==>GROW
-	    // 292 ==>SRHINK
-	    double smod=0.001;
-	    double gmod=0.0005;
-
-
-	    smod=this.m_config.getShrinkThreshold();
-	    gmod=this.m_config.getGrowThreshold();
-	    
-
-	    
-	    // 73.64359000000002 :: 23.168211444444      9.7945714166529 10 39B
-	    // Task completed in 48m37s (CPU time)
-	    // 681 ==>GROW
-	    // 594 ==>SRHINK
-	    //double smod=0.001;
-	    //double gmod=0.0001;
-
-
-	    // 73.63002999999999 :: 23.511347111111      7.8863656281118 10      42
-	    // 53m44s (CPU time)
-	    // 769 ==>GROW
-	    // 670 ==>SRHINK
-		    
-
-
-	    //Task completed in 1h4m58s (CPU time)
-	    // 73.67609 :: 33.418495666667       15.407473701577 13      74
-	    // 372 ==>GROW
-	    // 111 ==>SRHINK
-            //double smod=0.005;
-	    //double gmod=0.00001;
 
+	    if (delta_grow>delta_shrink){
+		if (delta_grow > gband)
+		    return _steps(1,delta_grow-gband);
+	    }
 
-	    // 73.67685 :: 33.726074555556       15.815987350369 13      76
-	    // Task completed in 1h5m36s (CPU time)
-	    // 384 ==>GROW
-	    // 113 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.000001;
-
-	    
-	    // 73.70067 :: 26.925273777778       11.393262120569 12      60
-	    // Task completed in 1h0m8s (CPU time)
-	    // 262 ==>GROW
-	    // 98 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0001;
-
-
-
-	    // 73.59858000000001 :: 18.366492666667      4.6094069921575 13      26
-	    // Task completed in 45m18s (CPU time)
-	    // 81 ==>GROW
-	    // 47 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.001;
-
-
-	    
-	    // 73.59627 :: 19.730673777778       4.3725866434936 13      32
-	    // Task completed in 43m8s (CPU time)
-	    // 123 ==>GROW
-	    // 59 ==>SRHINK
-	    // double smod=0.005;
-	    // double gmod=0.0005;
-
-	    
-	    // 73.61496 :: 14.999755555556       1.6112461725957 13      19
-	    // Task completed in 36m4s (CPU time)
-	    // 12 ==>GROW
-	    // 12 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.005;
-
-
-
-	    // 73.57433 :: 14.300099222222       2.1903882940701 11      19
-	    // Task completed in 38m8s (CPU time)
-	    // 27 ==>GROW
-	    // 34 ==>SRHINK
-	    //double smod=0.0025;
-	    //double gmod=0.0025;
-
-
-	    // 73.57505 :: 15.796867555556       2.2691379185133 13      20
-	    // Task completed in 37m29s (CPU time)
-	    // 21 ==>GROW
-	    // 13 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0025;
-
-	    // testeando valores de arriba, a gran escala
-	    //double smod=0.005;
-	    //double gmod=0.0001;
-	    // testeados con el RBF:
-
-	    
-	    // SMALL BEST
-	    // RbF_M => 85.22009 :: 30.953941     6.2092171690431 12      44
-	    // Task completed in 1h26m21s (CPU time)
-	    // 296 ==>GROW
-	    // 127 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.001;
-	    
-	    // BIGGER BEST
-	    // 85.86076000000001 :: 65.306929333333      19.190688157836 12      89
-	    // Task completed in 2h44m49s (CPU time)
-	    // 1014 ==>GROW
-	    // 350 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0001;
-
-
-
-	    // 85.93082999999999 :: 71.014344888889     20.310328102079 11      89
-	    // Task completed in 3h21m7s (CPU time)
-	    // 532 ==>GROW
-	    // 180 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0001;
-	    // RESIZE FACTOER=2
-
-
-
-
-
-	    // 85.8533 :: 64.081851777778        19.651437229762 12      89
-	    // 	    Task completed in 2h40m44s (CPU time)
-	    // 998 ==>GROW
-	    // 332 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.00005;
-
-	    
-	    // 85.46166 :: 38.838029444444       9.5571003284375 12      52
-	    // Task completed in 1h42m28s (CPU time)
-	    // 452 ==>GROW
-	    // 187 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0005;
-		
-	    
-	    // 84.23528999999999 :: 17.264824777778      2.2910169692963 12      22
-	    // Task completed in 56m26s (CPU time)
-	    // 63 ==>GROW
-	    // 40 ==>SRHINK
-	    //double smod=0.005;
-	    //double gmod=0.0025;
+	    if (delta_shrink>delta_grow){
+		if (delta_shrink > sband)
+		    return -_steps(-1,delta_shrink-sband);
+	    }
 
-	    
+	    resize_direction=0;
+	    resize_integral=0;
+	    return 0;
+	}
 
-	    
-	    //Task completed in 51m52s (CPU time)
-	    //83.97466000000001 :: 15.698789666667      2.4908100025666 12      22
-	    //34 ==>GROW
-	    // 27 ==>SRHINK
-	    // smod =0.005
-	    // gmod =0.005
-		
-	    
-	    
-	    
-	    
-	    /*
-            if (delta_grow > gmod){
-		if(delta_shrink<=smod){
-		    return 1;
-		}
+	// PI controller on the gap in excess of the band:
+	//   steps = ceil(Kp*excess + Ki*sum of excess), in [1,maxResizeSteps]
+	// The sum restarts when the direction changes or the gap falls in
+	// the band. Kp=Ki=0: one step per check.
+	protected int _steps(int direction, double excess){
+	    if (direction!=resize_direction){
+		resize_direction=direction;
+		resize_integral=0;
 	    }
+	    resize_integral+=excess;
 
-	    if (delta_shrink> smod){
-		if(delta_grow<=gmod){
-		    return -1;
-		}
-	    }
-	    */
-	    if (delta_grow>delta_shrink){
-		if (delta_grow > gmod)
-		    return 1;
+	    double kp=this.m_config.getResizeGain();
+	    double ki=this.m_config.getResizeIntegralGain();
+	    if ((kp==0.0) && (ki==0.0)){
+		return 1;
 	    }
 
-	    if (delta_shrink>delta_grow){
-		if (delta_shrink > smod)
-		    return -1;
-	    }
-    
-	    
-	    return 0;
-	    // FILTER
-	    /*
-	    filter = 15;
-	    value_filtered = value + (value_prev*filter)/(filter+1);
-	    value_prev = value_filtered
-	    */	
-	    
+	    double u=Math.ceil(kp*excess + ki*resize_integral);
+	    return (int)Math.max(1,Math.min(this.m_config.getMaxResizeSteps(),u));
 	}
 
 	public void reset(){
 	    reset_ema();
 	    instancesSeen=0;
 	    operations=0;
+	    last_operation=0;
+	    resize_direction=0;
+	    resize_integral=0;
 	}
 	
 	public void grow(){
 	    operations++;
+	    last_operation=1;
 	    instancesSeen=0;
 	    reset_ema();
 	    System.out.println("==>GROW");// ops:" + operations);
@@ -1329,6 +1915,7 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	
 	public void shrink(){
 	    operations--;
+	    last_operation=-1;
 	    instancesSeen=0;
 	    reset_ema();
 	    System.out.println("==>SRHINK");// ops:" + operations);
@@ -1384,10 +1971,10 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	protected long operations;
 
 	
-	public EmaElastic_good(){
-	    _shrink = new ExponentialMovingAverage();
-	    _default = new ExponentialMovingAverage();
-	    _grow = new ExponentialMovingAverage();
+	public EmaElastic_good(ElasticConfig config){
+	    _shrink = new ExponentialMovingAverage(config.getEmaAlpha());
+	    _default = new ExponentialMovingAverage(config.getEmaAlpha());
+	    _grow = new ExponentialMovingAverage(config.getEmaAlpha());
 	    reset();
 
 	}
@@ -1443,7 +2030,7 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	// 0          if noop
 	// positive   should grow
 	// negative   should shrink
-	public int shouldResize(){
+	public int shouldResize(int frontSize){
 
 			       
 
@@ -1570,10 +2157,17 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	protected BasicAccuracy m_saccuracy;
 	protected BasicAccuracy m_daccuracy;
 	protected BasicAccuracy m_gaccuracy;
+
+	// grow: shrunk vs default not significant at this level
+	protected McnemarTest m_growTest;
+	// shrink: grown vs default not significant at this level
+	protected McnemarTest m_shrinkTest;
 	
-	public McnemarElastic(){
+	public McnemarElastic(ElasticConfig config){
 	    this.m_shrink=new ContingencyTable();
 	    this.m_grow=new ContingencyTable();
+	    this.m_growTest=new McnemarTest(config.getGrowSignificance());
+	    this.m_shrinkTest=new McnemarTest(config.getShrinkSignificance());
 	    
 	    this.m_saccuracy = new BasicAccuracy();
 	    this.m_daccuracy = new BasicAccuracy();
@@ -1637,10 +2231,7 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	// positive   should grow
 	// negative   should shrink
 	@Override
-	public int shouldResize(){
-
-	    double gtest=this.m_grow.mcnemar();
-	    double stest=this.m_shrink.mcnemar();
+	public int shouldResize(int frontSize){
 
 	    double sacc= this.m_saccuracy.get();
     	    double dacc= this.m_daccuracy.get();
@@ -1858,7 +2449,7 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    */
 	    
 	    if (gdelta > 0.000){
-		if(stest<3.84){
+		if(!this.m_shrink.mcnemar(this.m_growTest)){
 		    return 1;
 		}
 	    }
@@ -1866,7 +2457,7 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 		
 
 	    if (sdelta> 0.000){
-  	        if(gtest<3.84){
+  	        if(!this.m_grow.mcnemar(this.m_shrinkTest)){
 		    return -1;
 		}
 	    }
@@ -1893,6 +2484,337 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
         
 
     
+    /////////////////////////////////////////////////////////////////////////////////////
+    //
+    //// PARALLEL SCORING
+    //
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // Computes the combined vote of learners [start,end) of a group.
+    // Ranges above stripe size are split in two halves; each stripe
+    // accumulates into its own double[numClasses] and halves are added
+    // on join (tree shaped reduction). No shared state is written.
+    protected class VoteTask extends RecursiveTask<double[]>{
+
+	private static final long serialVersionUID = 1L;
+
+	protected GroupEnsemble m_ensemble;
+	protected Instance m_instance;
+	protected int m_group;
+	protected int m_start;
+	protected int m_end;
+	protected int m_stripe;
+	protected int m_numClasses;
+
+	VoteTask(GroupEnsemble en, Instance instance, int Group,
+		 int start, int end, int stripe, int numClasses){
+	    this.m_ensemble=en;
+	    this.m_instance=instance;
+	    this.m_group=Group;
+	    this.m_start=start;
+	    this.m_end=end;
+	    this.m_stripe=stripe;
+	    this.m_numClasses=numClasses;
+	}
+
+	@Override
+	protected double[] compute(){
+	    int n=this.m_end-this.m_start;
+
+	    if (n<=this.m_stripe){
+		return _stripe();
+	    }
+
+	    int mid=this.m_start + n/2;
+	    VoteTask left=new VoteTask(this.m_ensemble,this.m_instance,this.m_group,
+				       this.m_start,mid,
+				       this.m_stripe,this.m_numClasses);
+	    VoteTask right=new VoteTask(this.m_ensemble,this.m_instance,this.m_group,
+					mid,this.m_end,
+					this.m_stripe,this.m_numClasses);
+	    left.fork();
+	    double[] r=right.compute();
+	    double[] l=left.join();
+	    for(int c=0;c<l.length;c++){
+		l[c]+=r[c];
+	    }
+	    return l;
+	}
+
+	// same weighting as _combineVotes
+	protected double[] _stripe(){
+	    double[] acc=new double[this.m_numClasses];
+	    for(int i=this.m_start;i<this.m_end;i++){
+		double[] vote=this.m_ensemble.learner(this.m_group,i)
+		    .getVotesForInstance(this.m_instance);
+
+		double sum=0;
+		for(int c=0;c<vote.length;c++){
+		    sum+=vote[c];
+		}
+		// also skips NaN, as vote.sumOfValues() > 0.0
+		if (!(sum>0.0)){
+		    continue;
+		}
+
+		double w=this.m_ensemble.accuracy(this.m_group,i);
+		double scale=(w>0) ? w/sum : 1.0/sum;
+		int nc=Math.min(vote.length,acc.length);
+		for(int c=0;c<nc;c++){
+		    acc[c]+=vote[c]*scale;
+		}
+	    }
+	    return acc;
+	}
+    }
+
+    
+    /////////////////////////////////////////////////////////////////////////////////////
+    //
+    //// PARALLEL TRAINING
+    //
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // Trains one learner on its own copy of the instance (training
+    // changes the instance weight). The Poisson weight is drawn by the
+    // policy so results do not depend on the schedule.
+    protected class TrainTask extends RecursiveAction{
+
+	private static final long serialVersionUID = 1L;
+
+	protected ElasticPolicySwapOnly m_policy;
+	protected Instance m_instance;
+	protected int m_group;
+	protected int m_idx;
+	protected double m_weight;
+	protected long m_seq;
+	protected double m_cost;
+	protected double[] m_vote;
+
+	TrainTask(ElasticPolicySwapOnly policy, Instance instance,
+		  int Group, int idx, double weight, long seq, double cost){
+	    this.m_policy=policy;
+	    this.m_instance=instance;
+	    this.m_group=Group;
+	    this.m_idx=idx;
+	    this.m_weight=weight;
+	    this.m_seq=seq;
+	    this.m_cost=cost;
+	}
+
+	@Override
+	protected void compute(){
+	    Instance instance=this.m_instance.copy();
+	    ElasticBaseLearner l=this.m_policy.getEnsemble().learner(this.m_group,this.m_idx);
+	    this.m_vote=this.m_policy._updateLearner(instance,this.m_group,this.m_idx,
+						     l.getVotesForInstance(instance,this.m_seq),
+						     this.m_weight,this.m_seq);
+	}
+    }
+
+    // Longest task first on the work-stealing pool: tasks are forked in
+    // decreasing cost, so idle workers steal the most costly task left
+    // (bottom of the deque) while this worker runs the cheapest ones
+    // (top). Splitting by count leaves threads idle behind deep trees.
+    protected class TrainScheduler extends RecursiveAction{
+
+	private static final long serialVersionUID = 1L;
+
+	protected TrainTask[] m_tasks;
+
+	TrainScheduler(TrainTask[] tasks){
+	    this.m_tasks=Arrays.copyOf(tasks,tasks.length);
+	    Arrays.sort(this.m_tasks,new Comparator<TrainTask>(){
+		    @Override
+		    public int compare(TrainTask a, TrainTask b){
+			return Double.compare(b.m_cost,a.m_cost);
+		    }
+		});
+	}
+
+	@Override
+	protected void compute(){
+	    for(int i=0;i<this.m_tasks.length;i++){
+		this.m_tasks[i].fork();
+	    }
+	    for(int i=this.m_tasks.length-1;i>=0;i--){
+		this.m_tasks[i].join();
+	    }
+	}
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////
+    //
+    //// ASYNCHRONOUS CANDIDATE TRAINING
+    //
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // Trains the candidate group on a background thread. The policy
+    // thread is the single producer and the trainer the single consumer
+    // of a bounded queue: submit blocks while the queue is full
+    // (backpressure). sync returns once every submitted instance has
+    // been trained; until then the candidate group must not be read.
+    // After each instance the candidate metrics are published as a
+    // snapshot the policy thread can read at any time (possibly stale).
+    protected class CandidateTrainer implements Runnable{
+
+	protected class Item{
+	    Instance instance;
+	    long seq;
+
+	    Item(Instance instance,long seq){
+		this.instance=instance;
+		this.seq=seq;
+	    }
+	}
+
+	protected ElasticPolicySwapOnly m_policy;
+	protected ArrayBlockingQueue<Item> m_queue;
+	protected Random m_random = new Random(1);
+	protected Thread m_thread;
+
+	// m_submitted is only used by the producer,
+	// m_trained is guarded by this
+	protected long m_submitted;
+	protected long m_trained;
+	protected volatile Throwable m_error;
+
+	// snapshot of the candidate metrics (double bits), valid up to
+	// instance m_publishedSeq. Entries findMaxSkip would ignore are -inf
+	protected AtomicLongArray m_published;
+	protected volatile int m_publishedSize;
+	protected volatile long m_publishedSeq;
+
+	// swaps decided on the snapshot / of those, not confirmed once
+	// the candidates were up to date
+	protected long m_staleSwaps;
+	protected long m_staleMisses;
+
+	CandidateTrainer(ElasticPolicySwapOnly policy, int capacity){
+	    this.m_policy=policy;
+	    this.m_queue=new ArrayBlockingQueue<Item>(capacity);
+	    this.m_submitted=0;
+	    this.m_trained=0;
+
+	    this.m_published=new AtomicLongArray(policy.m_config.getLearnersMaxSize());
+	    this.m_publishedSize=0;
+	    this.m_publishedSeq=0;
+	    this.m_staleSwaps=0;
+	    this.m_staleMisses=0;
+
+	    this.m_thread=new Thread(this,"ElasticRandomForest-candidates");
+	    this.m_thread.setDaemon(true);
+	    this.m_thread.start();
+	}
+
+	// instance must not be modified by the caller afterwards
+	public void submit(Instance instance, long seq){
+	    Item item=new Item(instance,seq);
+	    try{
+		while (!this.m_queue.offer(item,100,TimeUnit.MILLISECONDS)){
+		    _checkError();
+		}
+	    } catch (InterruptedException e){
+		Thread.currentThread().interrupt();
+		throw new RuntimeException("Interrupted submitting a candidate instance",e);
+	    }
+	    ++this.m_submitted;
+	}
+
+	public synchronized void sync(){
+	    try{
+		while ((this.m_trained<this.m_submitted) && (this.m_error==null)){
+		    wait();
+		}
+	    } catch (InterruptedException e){
+		Thread.currentThread().interrupt();
+		throw new RuntimeException("Interrupted waiting for candidate training",e);
+	    }
+	    _checkError();
+	}
+
+	// waits until the snapshot covers instance seq
+	public synchronized void awaitPublished(long seq){
+	    try{
+		while ((this.m_publishedSeq<seq) && (this.m_error==null)){
+		    wait();
+		}
+	    } catch (InterruptedException e){
+		Thread.currentThread().interrupt();
+		throw new RuntimeException("Interrupted waiting for candidate training",e);
+	    }
+	    _checkError();
+	}
+
+	public double published(int idx){
+	    return Double.longBitsToDouble(this.m_published.get(idx));
+	}
+
+	// same selection as GroupEnsemble.findMaxSkip, on the snapshot
+	public int findMaxPublished(){
+	    int s=this.m_publishedSize;
+	    double maxValue=published(0);
+	    int maxValueIdx=0;
+	    for(int i=1;i<s;i++){
+		double v=published(i);
+		if (v>maxValue){
+		    maxValue=v;
+		    maxValueIdx=i;
+		}
+	    }
+	    return maxValueIdx;
+	}
+
+	public void shutdown(){
+	    this.m_thread.interrupt();
+	}
+
+	protected void _publish(long seq){
+	    GroupEnsemble en=this.m_policy.getEnsemble();
+	    int Group=this.m_policy.s_GCANDIDATE;
+	    int s=en.groupSize(Group);
+	    for(int i=0;i<s;i++){
+		double v=en.metric(Group,i);
+		if ((i>0) && (en.learner(Group,i).instancesSeen<20)){
+		    v=Double.NEGATIVE_INFINITY;
+		}
+		this.m_published.set(i,Double.doubleToRawLongBits(v));
+	    }
+	    this.m_publishedSize=s;
+	    this.m_publishedSeq=seq;
+	}
+
+	protected void _checkError(){
+	    if (this.m_error!=null){
+		throw new RuntimeException("Candidate training failed",this.m_error);
+	    }
+	}
+
+	@Override
+	public void run(){
+	    try{
+		while (true){
+		    Item item=this.m_queue.take();
+		    this.m_policy._trainCandidates(item.instance,item.seq,this.m_random);
+		    _publish(item.seq);
+		    synchronized(this){
+			++this.m_trained;
+			notifyAll();
+		    }
+		}
+	    } catch (InterruptedException e){
+		// shutdown
+	    } catch (Throwable t){
+		this.m_error=t;
+		synchronized(this){
+		    notifyAll();
+		}
+	    }
+	}
+    }
+
+    
     /////////////////////////////////////////////////////////////////////////////////////
     //
     //// SWAP ENSEMBLE POLICY
@@ -1901,13 +2823,6 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
     //protected interface SwapPolicy{
     //};
 
-    /*
-    protected class AccuracyMetric{
-	static public double get(ElasticBaseLearner learner){
-	    return learner.accuracy.get();
-	}
-    }
-    */
 
     
     protected class AccuracySwapPolicy{ // implements SwapPolocy{
@@ -1917,8 +2832,8 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	
 	//public AccuracySwapPolicy(){}
 	
-	public double metric(ElasticBaseLearner learner){
-	    return learner.accuracy.get();
+	public double metric(GroupEnsemble en, int Group, int idx){
+	    return en.metric(Group,idx);
 	}
 		
 	
@@ -1944,7 +2859,6 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	// returns true if items were swapped
 	//         false otherwise
 	public boolean  swap(GroupEnsemble en,int frontGroupNum, int backGroupNum){
-	    //int frMinIdx= en.findMin2(frontGroupNum,AccuracyMetric.class);
 	    int frMinIdx= en.findMin(frontGroupNum);
 	    //int bkMaxIdx= en.findMax(backGroupNum);
 	    int bkMaxIdx= en.findMaxSkip(backGroupNum);
@@ -1952,11 +2866,8 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    //double frontValue=metric(en.learner(frontGroupNum,frMinIdx));
 	    //double backValue=metric(en.learner(backGroupNum,bkMaxIdx));
 
-	    ElasticBaseLearner flearner=en.learner(frontGroupNum,frMinIdx);
-	    ElasticBaseLearner blearner=en.learner(backGroupNum,bkMaxIdx);
-
-	    double frontValue=metric(flearner);
-	    double backValue=metric(blearner);
+	    double frontValue=metric(en,frontGroupNum,frMinIdx);
+	    double backValue=metric(en,backGroupNum,bkMaxIdx);
 
 	    /*
 	    if (blearner.instancesSeen<=40){
@@ -1990,7 +2901,11 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	public void init(Instance instance);
 	public double[] getVotesForInstance(Instance instance);
 	public void trainOnInstanceImpl(Instance instance);
+	// test-then-train in one pass: returns the votes
+	// getVotesForInstance would return before training
+	public double[] predictAndTrain(Instance instance);
 	public void reset();
+	public GroupEnsemble getEnsemble();
 
     }
 
@@ -2011,6 +2926,31 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	
 	protected Random m_random = new Random(1);
 	protected long m_instancesSeen;
+
+	// top-k voting: indices of the voting front learners
+	protected int[] m_voters;
+	// anytime voting: scaled vote of each visited front learner
+	protected DoubleVector[] m_anytimeVotes;
+
+	// parallel scoring (created on first use)
+	protected ForkJoinPool m_scoringPool;
+
+	// predictAndTrain: front votes collected while training
+	protected DoubleVector m_predictionVote;
+
+	// asynchronous candidate training (created on first use)
+	protected CandidateTrainer m_candidateTrainer;
+
+	// elastic candidate group: swaps since the last check
+	protected long m_intervalSwaps;
+	protected long m_candidateCheckOn;
+	// swap opportunities (swap decisions taken) since the last check
+	protected long m_intervalChances;
+
+	// memory governor (see _governMemory)
+	protected long m_memoryCheckOn;
+	protected int[] m_memoryOrder;
+	protected long m_memoryLimited;
 	
 	ElasticPolicySwapOnly(ElasticConfig config,
 			      learnerAllocator alloc){
@@ -2037,66 +2977,270 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    }
 	}
 
-	protected void _resetGroup(int Group){
-	    int e=this.m_ensemble.groupSize(Group);
-	    for(int i=0;i<e;i++){
-		this.m_ensemble.learner(Group,i).reset();
+	// Front votes computed in stripes on the scoring pool
+	protected ForkJoinPool _scoringPool(){
+	    if (this.m_scoringPool==null){
+		int threads=this.m_config.getScoringThreads();
+		if (threads<=0){
+		    threads=Runtime.getRuntime().availableProcessors();
+		}
+		this.m_scoringPool=new ForkJoinPool(threads);
 	    }
+	    return this.m_scoringPool;
 	}
 
-    
-	protected double[] _trainLearner(Instance instance,
-					 ElasticBaseLearner l){
-	
-	    int trueClass=(int)instance.classValue();
-	    double[] vote = l.getVotesForInstance(instance);
-
+	protected double[] _parallelVotes(Instance instance, int s){
+	    _scoringPool();
 
-	    l.accuracy.addResult(trueClass,
-				 vote);
-
-	
-	    l.trainOnInstance(instance,
-			      MiscUtils.poisson(this.m_config.getLambda(),
-						this.m_random),
-			      this.m_instancesSeen);
-	
-	    return vote;
+	    int threads=this.m_scoringPool.getParallelism();
+	    int stripe=Math.max(1,(s+threads-1)/threads);
+	    return this.m_scoringPool.invoke(new VoteTask(this.m_ensemble,instance,
+							  s_GFRONT,0,s,
+							  stripe,
+							  instance.numClasses()));
 	}
 
-	
-	protected void _trainRange(Instance instance,
-				   int Group,int startIdx, int endIdx,
-				   DoubleVector combinedVote){
+	// Max mass a learner adds to a class in _combineVotes
+	protected double _voteWeight(double acc){
+	    return (acc>0) ? acc : 1.0;
+	}
 
+	// Anytime prediction: front learners are visited in the given
+	// order (best first) and evaluation stops as soon as the remaining
+	// weight can not overturn the leading class. The argmax is the same
+	// as voting with all of them; the returned votes are partial sums.
+	// If every learner is visited, votes are re-added in slot order so
+	// near ties break exactly as in the full vote. (Only exception: a
+	// tree returning non finite votes turns the full vote into NaN; if
+	// the decision is taken before reaching it, that tree is ignored.)
+	// A deadline (ns, 0 disables it) may stop earlier, in which case the
+	// prediction is approximate.
+	protected double[] _anytimeVotes(Instance instance, int[] order, int n){
 
-	    int s=startIdx;
-	    int e=endIdx;
-	    //System.out.print("[TRAINRANGE:"+Group+"] Combine | ");
-	    
-	    for(int i=s;i<e;i++){
-		//System.out.print("[i:"+i+"] ");
-    
-		ElasticBaseLearner l=this.m_ensemble.learner(Group,i);
-		DoubleVector vote = new DoubleVector(_trainLearner(instance,l));
-		_combineVotes(combinedVote, vote, l.accuracy.get());
+	    DoubleVector combinedVote = new DoubleVector();
+	    if (this.m_anytimeVotes==null){
+		this.m_anytimeVotes=new DoubleVector[this.m_config.getLearnersMaxSize()];
 	    }
-	    //System.out.println("");
 
-	}
+	    double remaining=0;
+	    for(int j=0;j<n;j++){
+		remaining+=_voteWeight(this.m_ensemble.accuracy(s_GFRONT,order[j]));
+	    }
 
-	protected void _trainRange(Instance instance,
-				   int Group,int startIdx, int endIdx){
+	    long deadline=this.m_config.getAnytimeDeadline();
+	    long start=(deadline>0) ? System.nanoTime() : 0;
+	    
+	    for(int j=0;j<n;j++){
+		int i=order[j];
+		double acc=this.m_ensemble.accuracy(s_GFRONT,i);
+		ElasticBaseLearner l=this.m_ensemble.learner(s_GFRONT,i);
+		DoubleVector vote = new DoubleVector(l.getVotesForInstance(instance));
+		this._combineVotes(combinedVote, vote, acc);
+		this.m_anytimeVotes[i]=vote;
+
+		remaining-=_voteWeight(acc);
+		if (_isDecided(combinedVote.getArrayRef(),remaining)
+		    || ((deadline>0) && ((System.nanoTime()-start)>=deadline))){
+		    // drop the stored votes, they would keep the arrays alive
+		    for(int k=0;k<=j;k++){
+			this.m_anytimeVotes[order[k]]=null;
+		    }
+		    return combinedVote.getArrayRef();
+		}
+	    }
+
+	    // not decided: same summation order as the full vote
+	    Arrays.sort(order,0,n);
+	    combinedVote = new DoubleVector();
+	    for(int j=0;j<n;j++){
+		DoubleVector vote=this.m_anytimeVotes[order[j]];
+		if (vote.sumOfValues() > 0.0) {
+		    combinedVote.addValues(vote);
+		}
+		this.m_anytimeVotes[order[j]]=null;
+	    }
+	    return combinedVote.getArrayRef();
+	}
+
+	// true if the leading class can not be overturned by remaining.
+	// Votes are >=0 and missing classes count as 0
+	protected boolean _isDecided(double[] votes, double remaining){
+	    double first=0;
+	    double second=0;
+	    for(int c=0;c<votes.length;c++){
+		double v=votes[c];
+		if (v>first){
+		    second=first;
+		    first=v;
+		}else if (v>second){
+		    second=v;
+		}
+	    }
+	    return (first-second) > (remaining + s_ANYTIME_EPSILON);
+	}
+
+	protected void _resetGroup(int Group){
+	    int e=this.m_ensemble.groupSize(Group);
+	    for(int i=0;i<e;i++){
+		this.m_ensemble.reset(Group,i);
+	    }
+	}
+
+    
+	protected double[] _trainLearner(Instance instance,
+					 int Group, int idx){
+	    return _trainLearner(instance,Group,idx,
+				 this.m_random,this.m_instancesSeen);
+	}
+
+	protected double[] _trainLearner(Instance instance,
+					 int Group, int idx,
+					 Random random, long seq){
+	
+	    ElasticBaseLearner l=this.m_ensemble.learner(Group,idx);
+	    int trueClass=(int)instance.classValue();
+	    double[] vote = l.getVotesForInstance(instance,seq);
+
+	    // predictAndTrain: same vote and weight as getVotesForInstance,
+	    // i.e before the accuracy is updated with this instance
+	    if ((this.m_predictionVote!=null) && (Group==s_GFRONT)){
+		_combineVotes(this.m_predictionVote,
+			      new DoubleVector(vote),
+			      this.m_ensemble.accuracy(Group,idx));
+	    }
+
+	    return _updateLearner(instance,Group,idx,vote,
+				  MiscUtils.poisson(this.m_config.getLambda(),random),
+				  seq);
+	}
+
+	// accuracy update and training of one learner. Only touches the
+	// learner and its slot, so learners can be updated concurrently
+	protected double[] _updateLearner(Instance instance,
+					  int Group, int idx,
+					  double[] vote, double weight, long seq){
+	    ElasticBaseLearner l=this.m_ensemble.learner(Group,idx);
+	    int trueClass=(int)instance.classValue();
+
+	    this.m_ensemble.addResult(Group,idx,
+				      trueClass,Utils.maxIndex(vote));
+
+	
+	    boolean wasReset=l.trainOnInstance(instance,weight,seq);
+	    if (wasReset){
+		this.m_ensemble.resetAccuracy(Group,idx);
+	    }
+	
+	    return vote;
+	}
+
+	// one runtime task per learner, fair queued against other models
+	protected void _runtimeTrain(final TrainTask[] tasks){
+	    Runnable[] work=new Runnable[tasks.length];
+	    double[] cost=new double[tasks.length];
+	    for(int i=0;i<tasks.length;i++){
+		final TrainTask t=tasks[i];
+		work[i]=new Runnable(){
+			@Override
+			public void run(){
+			    t.compute();
+			}
+		    };
+		cost[i]=t.m_cost;
+	    }
+	    m_runtime.execute(m_runtimeModel,work,cost);
+	}
+
+	protected boolean _isParallelTraining(int n){
+	    int parallel=this.m_config.getParallelTraining();
+	    if (m_runtime!=null){
+		return n>parallel;
+	    }
+	    return (parallel>0) && (n>parallel);
+	}
+
+	// Trains learners [s,e) of a group on the scoring pool, scheduled
+	// by tree cost. Poisson weights are drawn in index order and
+	// prediction votes combined in index order afterwards, so the
+	// result is the same as training in place. Returns the votes.
+	protected double[][] _parallelTrain(Instance instance,
+					    int Group, int s, int e){
+	    int n=e-s;
+	    TrainTask[] tasks=new TrainTask[n];
+	    double[] preAcc=new double[n];
+	    for(int i=0;i<n;i++){
+		ElasticBaseLearner l=this.m_ensemble.learner(Group,s+i);
+		preAcc[i]=this.m_ensemble.accuracy(Group,s+i);
+		tasks[i]=new TrainTask(this,instance,Group,s+i,
+				       MiscUtils.poisson(this.m_config.getLambda(),
+							 this.m_random),
+				       this.m_instancesSeen,
+				       l.cost());
+	    }
+
+	    if (m_runtime!=null){
+		_runtimeTrain(tasks);
+	    }else{
+		_scoringPool().invoke(new TrainScheduler(tasks));
+	    }
+
+	    double[][] votes=new double[n][];
+	    for(int i=0;i<n;i++){
+		votes[i]=tasks[i].m_vote;
+		if ((this.m_predictionVote!=null) && (Group==s_GFRONT)){
+		    _combineVotes(this.m_predictionVote,
+				  new DoubleVector(votes[i]),
+				  preAcc[i]);
+		}
+	    }
+	    return votes;
+	}
+
+	
+	protected void _trainRange(Instance instance,
+				   int Group,int startIdx, int endIdx,
+				   DoubleVector combinedVote){
+
+
+	    int s=startIdx;
+	    int e=endIdx;
+	    //System.out.print("[TRAINRANGE:"+Group+"] Combine | ");
+
+	    if (_isParallelTraining(e-s)){
+		double[][] votes=_parallelTrain(instance,Group,s,e);
+		for(int i=s;i<e;i++){
+		    DoubleVector vote = new DoubleVector(votes[i-s]);
+		    _combineVotes(combinedVote, vote, this.m_ensemble.accuracy(Group,i));
+		}
+		return;
+	    }
+	    
+	    for(int i=s;i<e;i++){
+		//System.out.print("[i:"+i+"] ");
+    
+		DoubleVector vote = new DoubleVector(_trainLearner(instance,Group,i));
+		_combineVotes(combinedVote, vote, this.m_ensemble.accuracy(Group,i));
+	    }
+	    //System.out.println("");
+
+	}
+
+	protected void _trainRange(Instance instance,
+				   int Group,int startIdx, int endIdx){
 	    int s=startIdx;
 	    int e=endIdx;
 	    //System.out.print("[TRAINRANGE:"+Group+"] NoCombine | ");
 
+	    if (_isParallelTraining(e-s)){
+		_parallelTrain(instance,Group,s,e);
+		return;
+	    }
+
 	    for(int i=s;i<e;i++){
 		//System.out.print("[i:"+i+"] ");
 
-		ElasticBaseLearner l=this.m_ensemble.learner(Group,i);
 		//DoubleVector vote = new DoubleVector(_trainLearner(instance,l));
-		_trainLearner(instance,l);
+		_trainLearner(instance,Group,i);
 
 	    }
 	    //System.out.println("");
@@ -2124,13 +3268,99 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	
 	}
 
-	protected void _reserveGroups(int num){
+	// Candidates only feed the swap. With a candidate queue they are
+	// trained by the CandidateTrainer on their own copy of the instance
+	protected void _trainCandidates(Instance instance){
+	    int capacity=this.m_config.getCandidateQueue();
+	    if (capacity==0){
+		_trainGroup(s_GCANDIDATE,instance);
+		return;
+	    }
+
+	    if (this.m_candidateTrainer==null){
+		this.m_candidateTrainer=new CandidateTrainer(this,capacity);
+	    }
+	    this.m_candidateTrainer.submit(instance.copy(),this.m_instancesSeen);
+	}
+
+	// called from the CandidateTrainer thread
+	protected void _trainCandidates(Instance instance, long seq, Random random){
+	    int e=this.m_ensemble.groupSize(s_GCANDIDATE);
+	    for(int i=0;i<e;i++){
+		_trainLearner(instance,s_GCANDIDATE,i,random,seq);
+	    }
+	}
+
+	// Synchronization point: returns true when the candidate group is
+	// up to date and a swap should be tried. Always when trained in
+	// place. In the background, every syncPeriod instances or, with
+	// maxStaleness, only when the published candidate metrics (at most
+	// maxStaleness instances old) say the swap would happen
+	protected boolean _syncCandidates(){
+	    CandidateTrainer t=this.m_candidateTrainer;
+	    if (t==null){
+		this.m_intervalChances++;
+		return true;
+	    }
+
+	    int stale=this.m_config.getMaxStaleness();
+	    if (stale==0){
+		if ((this.m_instancesSeen % this.m_config.getSyncPeriod())!=0){
+		    return false;
+		}
+		t.sync();
+		this.m_intervalChances++;
+		return true;
+	    }
+
+	    // the published metrics decide, a swap opportunity either way
+	    t.awaitPublished(this.m_instancesSeen-stale);
+	    this.m_intervalChances++;
+	    int frMinIdx=this.m_ensemble.findMin(s_GFRONT);
+	    int bkMaxIdx=t.findMaxPublished();
+	    if (!(this.m_ensemble.metric(s_GFRONT,frMinIdx)<t.published(bkMaxIdx))){
+		return false;
+	    }
+
+	    t.sync();
+	    t.m_staleSwaps++;
+	    bkMaxIdx=this.m_ensemble.findMaxSkip(s_GCANDIDATE);
+	    if (!(this.m_ensemble.metric(s_GFRONT,frMinIdx)
+		  <this.m_ensemble.metric(s_GCANDIDATE,bkMaxIdx))){
+		t.m_staleMisses++;
+	    }
+	    return true;
+	}
+
+	protected void _reserveGroups(int num, int numClasses){
 	    this.m_ensemble = new GroupEnsemble(num,
 						this.m_config.getLearnersMaxSize(),
-						this.m_learnerAllocator
+						this.m_learnerAllocator,
+						_newAccuracyEstimator(num),
+						_newMetric(num,numClasses)
 						);
 	}
 
+	protected Metric _newMetric(int num, int numClasses){
+	    if (this.m_config.getLearnerMetric()==s_METRIC_KAPPA){
+		return new MetricKappa(num,numClasses);
+	    }
+	    return new MetricAccuracy();
+	}
+
+	protected AccuracyEstimator _newAccuracyEstimator(int num){
+	    switch(this.m_config.getLearnerMetric()){
+	    case s_METRIC_WINDOW:
+		return new WindowAccuracy(num,this.m_config.getMetricWindow());
+	    case s_METRIC_FADING:
+		return new FadingAccuracy(num,this.m_config.getFadingFactor());
+	    case s_METRIC_ADWIN:
+		return new AdwinAccuracy(num);
+	    default:
+		return new CumulativeAccuracy(num);
+	    }
+	}
+
 	protected void _initSwap(){
 	    // Init Front Learners
 	    this.m_ensemble.initGroup(s_GFRONT,
@@ -2140,11 +3370,18 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 				      );
 
 	    // Init Candidate Learners
+	    int minCandidates=(this.m_config.getCandidateInterval()>0)
+		? this.m_config.getCandidateMinSize()
+		: 10;
 	    this.m_ensemble.initGroup(s_GCANDIDATE,
 				      this.m_config.getCandidatesSize(),
-				      10,
+				      minCandidates,
 				      this.m_config.getLearnersMaxSize()
 				      );
+	    this.m_intervalSwaps=0;
+	    this.m_intervalChances=0;
+	    this.m_candidateCheckOn=this.m_instancesSeen;
+	    this.m_memoryCheckOn=this.m_instancesSeen;
 
 	    this.m_swap = new AccuracySwapPolicy();
 
@@ -2156,6 +3393,127 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    boolean ret=this.m_swap.swap(this.m_ensemble,s_GFRONT,s_GCANDIDATE);
 	    //swaps=(ret==true) ? 1 : 0;
 	    //System.out.println("[SWAP] count:"+swaps);
+	    if (ret){
+		this.m_intervalSwaps++;
+	    }
+	}
+
+	// Checks on their own instance schedules, after the swap step of
+	// every instance (not only when a swap is tried, which with
+	// syncPeriod/maxStaleness is rare). Candidates trained in the
+	// background are synced first.
+	protected void _periodicChecks(){
+	    int interval=this.m_config.getCandidateInterval();
+	    boolean candidates=(interval>0)
+		&& ((this.m_instancesSeen-this.m_candidateCheckOn)>=interval);
+	    boolean memory=(this.m_config.getMemoryLimit()>0)
+		&& ((this.m_instancesSeen-this.m_memoryCheckOn)>=this.m_config.getMemoryCheckPeriod());
+	    if (!candidates && !memory){
+		return;
+	    }
+
+	    if (this.m_candidateTrainer!=null){
+		this.m_candidateTrainer.sync();
+	    }
+	    if (candidates){
+		_resizeCandidates();
+	    }
+	    if (memory){
+		_governMemory();
+	    }
+	}
+
+	// Groups in the order the memory governor takes memory from them
+	protected int[] _memoryGroups(){
+	    return new int[]{s_GCANDIDATE,s_GFRONT};
+	}
+
+	protected double _treeBytes(){
+	    double total=0;
+	    int[] groups=_memoryGroups();
+	    for(int j=0;j<groups.length;j++){
+		int e=this.m_ensemble.groupSize(groups[j]);
+		for(int i=0;i<e;i++){
+		    total+=this.m_ensemble.learner(groups[j],i).bytes();
+		}
+	    }
+	    return total;
+	}
+
+	// Memory governor, every memoryCheckPeriod instances (see
+	// _periodicChecks): no tree is being trained.
+	// When the estimated memory of all trees is over memoryLimit, the
+	// excess is taken from the trees in _memoryGroups order (least
+	// accurate first in each group): each GovernedARFHoeffdingTree
+	// (required by -B) is limited to its size minus the remaining
+	// excess, the least promising leaves are deactivated and the
+	// memory estimate period (-e) halved, so the tree manager also
+	// checks sooner when the sizeofag agent is loaded
+	protected void _governMemory(){
+	    int limit=this.m_config.getMemoryLimit();
+	    this.m_memoryCheckOn=this.m_instancesSeen;
+
+	    double excess=_treeBytes() - limit*1024.0*1024.0;
+	    if (excess<=0){
+		return;
+	    }
+
+	    if (this.m_memoryOrder==null){
+		this.m_memoryOrder=new int[this.m_config.getLearnersMaxSize()];
+	    }
+
+	    int[] groups=_memoryGroups();
+	    for(int j=0;(j<groups.length) && (excess>0);j++){
+		int g=groups[j];
+		int n=this.m_ensemble.selectTop(g,this.m_ensemble.groupSize(g),
+						this.m_memoryOrder);
+		for(int k=n-1;(k>=0) && (excess>0);k--){
+		    int idx=this.m_memoryOrder[k];
+		    ElasticBaseLearner l=this.m_ensemble.learner(g,idx);
+		    double before=l.bytes();
+
+		    GovernedARFHoeffdingTree t=(GovernedARFHoeffdingTree)l.classifier;
+		    if (t.activeLeaves()==0){
+			continue;
+		    }
+		    t.limitBytes(before-excess);
+		    int period=t.memoryEstimatePeriodOption.getValue();
+		    t.memoryEstimatePeriodOption.setValue(Math.max(s_MIN_MEMORY_ESTIMATE_PERIOD,
+								   period/2));
+		    this.m_memoryLimited++;
+		    excess-=before-l.bytes();
+		}
+	    }
+	}
+
+	// Elastic candidate group, every candidateInterval instances (see
+	// _periodicChecks): the candidates are up to date and not being
+	// trained. Grows by resizeFactor when at least driftBurst front
+	// learners drifted since the last check, shrinks by resizeFactor
+	// (worst candidates first) when there were swap opportunities but
+	// no swap.
+	protected void _resizeCandidates(){
+	    int drifts=0;
+	    int s=this.m_ensemble.groupSize(s_GFRONT);
+	    for(int i=0;i<s;i++){
+		if (this.m_ensemble.learner(s_GFRONT,i).lastDriftOn>this.m_candidateCheckOn){
+		    drifts++;
+		}
+	    }
+
+	    int rs=this.m_config.getResizeFactor();
+	    if (drifts>=this.m_config.getDriftBurst()){
+		this.m_ensemble.grow(s_GCANDIDATE,rs);
+	    }else if ((this.m_intervalChances>0) && (this.m_intervalSwaps==0)){
+		for(int i=0;i<rs;i++){
+		    this.m_ensemble.findMoveMin(s_GCANDIDATE);
+		    this.m_ensemble.shrink(s_GCANDIDATE,1);
+		}
+	    }
+
+	    this.m_intervalSwaps=0;
+	    this.m_intervalChances=0;
+	    this.m_candidateCheckOn=this.m_instancesSeen;
 	}
 
 	
@@ -2163,15 +3521,14 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    int minIdx= this.m_ensemble.findMin(Group);
 	    int maxIdx= this.m_ensemble.findMax(Group);
 
-	    double maxAcc=this.m_ensemble.learner(Group,maxIdx).accuracy.get();
-	    double minAcc=this.m_ensemble.learner(Group,minIdx).accuracy.get();
+	    double maxAcc=this.m_ensemble.accuracy(Group,maxIdx);
+	    double minAcc=this.m_ensemble.accuracy(Group,minIdx);
 
     
 	    int s=this.m_ensemble.groupSize(Group);
 	    double accAccum=0;
 	    for(int i=0;i<s;i++){
-		ElasticBaseLearner l=this.m_ensemble.learner(Group,i);
-		double acc=l.accuracy.get();
+		double acc=this.m_ensemble.accuracy(Group,i);
 		if (!Double.isNaN(acc)){
 		    accAccum+=acc;
 		}
@@ -2192,15 +3549,55 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    
 	}
 	
+	// stops the background threads (resetLearning)
 	@Override
 	public void reset() {
+	    if (this.m_candidateTrainer!=null){
+		this.m_candidateTrainer.shutdown();
+		this.m_candidateTrainer=null;
+	    }
+	    if (this.m_scoringPool!=null){
+		this.m_scoringPool.shutdown();
+		this.m_scoringPool=null;
+	    }
+	}
+
+	@Override
+	public GroupEnsemble getEnsemble() {
+	    return this.m_ensemble;
+	}
+
+	// Front learners are traversed once: the votes computed for
+	// training are also the prediction. Top-k and anytime voting
+	// do not use every front learner, so they keep the two passes.
+	@Override
+	public double[] predictAndTrain(Instance instance) {
+	    
+	    int s=this.m_ensemble.groupSize(s_GFRONT);
+	    int k=this.m_config.getTopK();
+	    boolean fused=(instance.weight()!=0.0)
+		&& !((k>0) && (k<s))
+		&& !this.m_config.isAnytime();
+
+	    if (!fused){
+		double[] votes=getVotesForInstance(instance);
+		trainOnInstanceImpl(instance);
+		return votes;
+	    }
+
+	    this.m_predictionVote=new DoubleVector();
+	    trainOnInstanceImpl(instance);
+	    DoubleVector votes=this.m_predictionVote;
+	    this.m_predictionVote=null;
+	    
+	    return votes.getArrayRef();
 	}
 	
 	
 	@Override
 	public void init(Instance instance) {
 	    
-	    _reserveGroups(2);
+	    _reserveGroups(2,instance.numClasses());
 	    _initSwap();
 	    
 	}
@@ -2211,10 +3608,41 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    DoubleVector combinedVote = new DoubleVector();
 	    
 	    int s=this.m_ensemble.groupSize(s_GFRONT);
+	    int k=this.m_config.getTopK();
+	    boolean topK=(k>0) && (k<s);
+	    boolean anytime=this.m_config.isAnytime();
+	    int parallel=this.m_config.getParallelScoring();
+
+	    if (!topK && !anytime && (parallel>0) && (s>parallel)){
+		return _parallelVotes(instance,s);
+	    }
+
+	    if (topK || anytime){
+		// Front learners sorted by metric, best first.
+		// With top-k only the k best vote
+		if (this.m_voters==null){
+		    this.m_voters=new int[this.m_config.getLearnersMaxSize()];
+		}
+		int n=this.m_ensemble.selectTop(s_GFRONT,
+						topK ? k : s,
+						this.m_voters);
+		if (anytime){
+		    return _anytimeVotes(instance,this.m_voters,n);
+		}
+		
+		for(int j=0;j<n;j++){
+		    int i=this.m_voters[j];
+		    ElasticBaseLearner l=this.m_ensemble.learner(s_GFRONT,i);
+		    DoubleVector vote = new DoubleVector(l.getVotesForInstance(instance));
+		    this._combineVotes(combinedVote, vote, this.m_ensemble.accuracy(s_GFRONT,i));
+		}
+		return combinedVote.getArrayRef();
+	    }
+	    
 	    for(int i=0;i<s;i++){
 		ElasticBaseLearner l=this.m_ensemble.learner(s_GFRONT,i);
 		DoubleVector vote = new DoubleVector(l.getVotesForInstance(instance));
-		this._combineVotes(combinedVote, vote, l.accuracy.get());
+		this._combineVotes(combinedVote, vote, this.m_ensemble.accuracy(s_GFRONT,i));
 	    
 	    }
 	    
@@ -2234,12 +3662,22 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    this.m_ensemble.findMoveMin(s_GFRONT);
 
 	    
-	    this.m_ensemble.findMoveMax(s_GCANDIDATE);
-	    this._trainGroup(s_GCANDIDATE,instance);
+	    if (this.m_config.getCandidateQueue()==0){
+		this.m_ensemble.findMoveMax(s_GCANDIDATE);
+	    }
+	    this._trainCandidates(instance);
+	    if (!this._syncCandidates()){
+		_periodicChecks();
+		return;
+	    }
 	    this.m_ensemble.findMoveMax(s_GCANDIDATE);
 
 	    //this._doSwap();
 	    boolean ret=this.m_swap.swap(this.m_ensemble,s_GFRONT,s_GCANDIDATE);
+	    if (ret){
+		this.m_intervalSwaps++;
+	    }
+	    _periodicChecks();
 
 	    _dumpGroupStats(s_GFRONT);
 	    _dumpGroupStats(s_GCANDIDATE);
@@ -2259,12 +3697,41 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
     /////////////////////////////////////////////////////////////////////////////////////
     protected class ElasticPolicy1F0C extends ElasticPolicySwapOnly{
 
+	// grow trees give memory first
+	@Override
+	protected int[] _memoryGroups(){
+	    return new int[]{s_GGROW,s_GCANDIDATE,s_GFRONT};
+	}
+
 	//private static final long serialVersionUID = 1L;
 
 	protected int s_GGROW=2;
 
 	protected Elastic m_elastic;
 
+	// Shadow sizes (see _shadowUpdate). Votes of this instance by
+	// slot: front idx, then maxSize+grow idx
+	protected double[][] m_shadowVote;
+	protected int[] m_shadowOrder;
+	protected double[] m_shadowSum;
+	// by ensemble size, since the last resize
+	protected ExponentialMovingAverage[] m_shadowEma;
+	protected double[] m_shadowOk;
+	protected double[] m_shadowAcc;
+	protected long m_shadowSeen;
+	// -C McNemar: by ensemble size, prediction of this instance and
+	// table against the current size (control)
+	protected int[] m_shadowPred;
+	protected ContingencyTable[] m_shadowTable;
+	protected McnemarTest m_shadowGrowTest;
+	protected McnemarTest m_shadowShrinkTest;
+
+	// Drift storms (see _driftStorm): storm mode lasts until
+	// m_stormUntil; m_stormBase is the front size when it started
+	// (-1: no storm to recover from)
+	protected long m_stormUntil;
+	protected int m_stormBase;
+
 	ElasticPolicy1F0C(ElasticConfig config,
 			  learnerAllocator alloc){
 	    super(config,alloc);
@@ -2273,16 +3740,43 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	
 	@Override
 	public void init(Instance instance) {
-	    _reserveGroups(3);
+	    _reserveGroups(3,instance.numClasses());
 	    _initSwap();
 	    
 	    this.m_ensemble.initGroup(s_GGROW,
-				      this.m_config.getResizeFactor(),
+				      _growSize(),
 				      1,
 				      this.m_config.getLearnersMaxSize()
 				      );
 	    
-	    this.m_elastic = new EmaElastic(this.m_config);
+	    this.m_elastic = _createElastic();
+
+	    if (this.m_config.getShadowStep()>0){
+		int max=this.m_config.getLearnersMaxSize();
+		int sizes=2*max+1;
+		this.m_shadowVote=new double[sizes][];
+		this.m_shadowOrder=new int[max];
+		this.m_shadowSum=new double[instance.numClasses()];
+		this.m_shadowEma=new ExponentialMovingAverage[sizes];
+		for(int k=0;k<sizes;k++){
+		    this.m_shadowEma[k]=new ExponentialMovingAverage(this.m_config.getEmaAlpha());
+		}
+		this.m_shadowOk=new double[sizes];
+		this.m_shadowAcc=new double[sizes];
+		if (this.m_config.getController()==s_CONTROLLER_MCNEMAR){
+		    this.m_shadowPred=new int[sizes];
+		    this.m_shadowTable=new ContingencyTable[sizes];
+		    for(int k=0;k<sizes;k++){
+			this.m_shadowTable[k]=new ContingencyTable();
+		    }
+		    this.m_shadowGrowTest=new McnemarTest(this.m_config.getGrowSignificance());
+		    this.m_shadowShrinkTest=new McnemarTest(this.m_config.getShrinkSignificance());
+		}
+		_shadowReset();
+	    }
+
+	    this.m_stormUntil=0;
+	    this.m_stormBase=-1;
 	}
 
 	
@@ -2325,26 +3819,43 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
 	    // TRAIN CANDIATES GROUPS
 	    // Used only for swap (DEAFULT ENSEMBLE)
-	    _trainGroup(s_GCANDIDATE,instance);
+	    _trainCandidates(instance);
 
 
 	    // GROWN ENSEMMBLE PREDICTION
-	    _trainGroup(s_GGROW,instance,combinedVote);
+	    _trainGrow(instance,combinedVote);
 	    int yg=Utils.maxIndex(combinedVote.getArrayRef()); //.maxIndex();
 
 	    // Update ENSEMBLES stats
 	    this.m_elastic.addResults(trueClass,
 				      ys,yd,yg);
+	    if (this.m_shadowVote!=null){
+		_shadowUpdate(trueClass,s);
+	    }
 
 
 	    // Check for a resize every  this.m_config.getElasticInterval()
 	    if ((this.m_instancesSeen % this.m_config.getElasticInterval())==0){
-		int resizeOperation=this.m_elastic.shouldResize();
+		int resizeOperation=(this.m_shadowVote!=null)
+		    ? _shadowResize(s)
+		    : this.m_elastic.shouldResize(this.m_ensemble.groupSize(s_GFRONT));
+		// storms resize the grow group, shadow sizes change too
+		int g=this.m_ensemble.groupSize(s_GGROW);
+		if (this.m_config.getDriftWindow()>0){
+		    resizeOperation=_driftStorm(resizeOperation);
+		}
 		doOperation(resizeOperation);
+		if ((this.m_shadowVote!=null)
+		    && ((resizeOperation!=0) || (this.m_ensemble.groupSize(s_GGROW)!=g))){
+		    _shadowReset();
+		}
 	    }
 
-	    // Do swap
-	    this._doSwap();
+	    // Do swap (candidates trained up to this instance)
+	    if (this._syncCandidates()){
+		this._doSwap();
+	    }
+	    _periodicChecks();
 
 	    // Dump Group Info (printf)
 	    this.m_ensemble.groupInfo(s_GFRONT);
@@ -2352,38 +3863,360 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    	    
 	}
 
+	protected Elastic _createElastic(){
+	    switch(this.m_config.getController()){
+	    case s_CONTROLLER_MCNEMAR:
+		return new McnemarElastic(this.m_config);
+	    case s_CONTROLLER_EMA_GOOD:
+		return new EmaElastic_good(this.m_config);
+	    default:
+		return new EmaElastic(this.m_config);
+	    }
+	}
+
+	@Override
+	protected double[] _updateLearner(Instance instance,
+					  int Group, int idx,
+					  double[] vote, double weight, long seq){
+	    if (this.m_shadowVote!=null){
+		if (Group==s_GFRONT){
+		    this.m_shadowVote[idx]=vote;
+		}else if (Group==s_GGROW){
+		    this.m_shadowVote[this.m_config.getLearnersMaxSize()+idx]=vote;
+		}
+	    }
+	    return super._updateLearner(instance,Group,idx,vote,weight,seq);
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//
+	//// DRIFT STORMS
+	//
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	// Ensemble level drift signal: front and grow learners reset by
+	// their detector (lastDriftOn) within the last driftWindow
+	// instances. At least stormFraction of them is a storm: for
+	// driftWindow more instances shrinking is frozen and the grow
+	// group is pre-warmed to maxResizeSteps*resizeFactor learners, so
+	// grows take trained trees. Once stable, the extra grow learners are
+	// dropped and, while the controller keeps the size, the front
+	// shrinks up to maxResizeSteps per check back to its pre-storm size.
+	// Returns the operation to apply instead of resizeOperation.
+	protected int _driftStorm(int resizeOperation){
+	    int s=this.m_ensemble.groupSize(s_GFRONT);
+	    int g=this.m_ensemble.groupSize(s_GGROW);
+	    int rs=this.m_config.getResizeFactor();
+	    int steps=this.m_config.getMaxResizeSteps();
+	    long window=this.m_config.getDriftWindow();
+	    long since=this.m_instancesSeen-window;
+
+	    int resets=_countResets(s_GFRONT,since)+_countResets(s_GGROW,since);
+	    if (resets>=Math.max(1.0,this.m_config.getStormFraction()*(s+g))){
+		if (this.m_stormBase<0){
+		    this.m_stormBase=s;
+		}
+		this.m_stormUntil=this.m_instancesSeen+window;
+		if (g<steps*rs){
+		    this.m_ensemble.grow(s_GGROW,steps*rs-g);
+		    for(int i=g;i<this.m_ensemble.groupSize(s_GGROW);i++){
+			this.m_ensemble.learner(s_GGROW,i).createdOn=this.m_instancesSeen;
+		    }
+		}
+	    }
+
+	    if (this.m_instancesSeen<this.m_stormUntil){
+		return Math.max(resizeOperation,s_ELASTIC_OPERATION_KEEP);
+	    }
+
+	    if (this.m_stormBase<0){
+		return resizeOperation;
+	    }
+
+	    // stable again
+	    for(int i=_growSize();i<g;i++){
+		_dropGrowLearner();
+	    }
+	    if ((resizeOperation!=s_ELASTIC_OPERATION_KEEP) || (s<=this.m_stormBase)){
+		this.m_stormBase=-1;
+		return resizeOperation;
+	    }
+	    return -Math.min(steps,(s-this.m_stormBase+rs-1)/rs);
+	}
+
+	// Grow group size: one resizeFactor step. With PI resize (-K/-I)
+	// a check may grow maxResizeSteps steps, each takes its own
+	// trained grow learner, so the group keeps that many
+	protected int _growSize(){
+	    int rs=this.m_config.getResizeFactor();
+	    if ((this.m_config.getResizeGain()>0.0)
+		|| (this.m_config.getResizeIntegralGain()>0.0)){
+		return rs*this.m_config.getMaxResizeSteps();
+	    }
+	    return rs;
+	}
+
+	// With more than one step of grow learners (PI resize, drift
+	// storms) new ones vote (grown ensemble, shadow sizes, multi-step
+	// grows) after s_WARM_INSTANCES: the accuracy of a few instances
+	// would weight them as much as trained trees. With one step every
+	// grow learner votes
+	protected boolean _isWarm(int idx){
+	    if (this.m_ensemble.groupSize(s_GGROW)<=this.m_config.getResizeFactor()){
+		return true;
+	    }
+	    long age=this.m_instancesSeen-this.m_ensemble.learner(s_GGROW,idx).createdOn;
+	    return age>=s_WARM_INSTANCES;
+	}
+
+	protected void _trainGrow(Instance instance, DoubleVector combinedVote){
+	    int g=this.m_ensemble.groupSize(s_GGROW);
+	    if (g<=this.m_config.getResizeFactor()){
+		_trainGroup(s_GGROW,instance,combinedVote);
+		return;
+	    }
+
+	    for(int i=0;i<g;i++){
+		boolean warm=_isWarm(i);
+		double[] vote=_trainLearner(instance,s_GGROW,i);
+		if (warm){
+		    _combineVotes(combinedVote,new DoubleVector(vote),
+				  _learnerWeight(s_GGROW,i));
+		}
+	    }
+	}
+
+	// Drops the least trained grow learner: the youngest one if it is
+	// not warm, else the one with the lowest metric
+	protected void _dropGrowLearner(){
+	    int g=this.m_ensemble.groupSize(s_GGROW);
+	    int idx=0;
+	    for(int i=1;i<g;i++){
+		if (this.m_ensemble.learner(s_GGROW,i).createdOn
+		    >this.m_ensemble.learner(s_GGROW,idx).createdOn){
+		    idx=i;
+		}
+	    }
+	    if (_isWarm(idx)){
+		idx=this.m_ensemble.findMin(s_GGROW);
+	    }
+	    this.m_ensemble.swap(s_GGROW,idx,s_GGROW,g-1);
+	    this.m_ensemble.shrink(s_GGROW,1);
+	}
+
+	protected int _countResets(int Group, long since){
+	    int n=0;
+	    int e=this.m_ensemble.groupSize(Group);
+	    for(int i=0;i<e;i++){
+		long on=this.m_ensemble.learner(Group,i).lastDriftOn;
+		if ((on>0) && (on>since)){
+		    n++;
+		}
+	    }
+	    return n;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//
+	//// SHADOW SIZES
+	//
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	// Accuracy of many ensemble sizes at once: the front sorted by
+	// metric (best first) followed by the grow group. The prefix of
+	// k learners is the ensemble of size k, its vote the running sum
+	// of the votes already computed for training. Tracked sizes:
+	// multiples of shadowStep, the current size and the grown size.
+	// The shadow sizes replace the elastic controller: -C McNemar
+	// compares them with McNemar tests (see _shadowMcnemar), any other
+	// controller with EMAs of their accuracies.
+	protected void _shadowUpdate(int trueClass, int s){
+	    int g=this.m_ensemble.groupSize(s_GGROW);
+	    int max=this.m_config.getLearnersMaxSize();
+	    int step=this.m_config.getShadowStep();
+	    int n=this.m_ensemble.selectTop(s_GFRONT,s,this.m_shadowOrder);
+
+	    Arrays.fill(this.m_shadowSum,0.0);
+	    this.m_shadowSeen++;
+	    for(int k=1;k<=n+g;k++){
+		if (k<=n){
+		    int idx=this.m_shadowOrder[k-1];
+		    _shadowAdd(this.m_shadowVote[idx],
+			       _learnerWeight(s_GFRONT,idx));
+		}else if (_isWarm(k-1-n)){
+		    int idx=k-1-n;
+		    _shadowAdd(this.m_shadowVote[max+idx],
+			       _learnerWeight(s_GGROW,idx));
+		}
+
+		if (((k%step)==0) || (k==n) || (k==n+g)){
+		    int y=Utils.maxIndex(this.m_shadowSum);
+		    if (y==trueClass){
+			this.m_shadowOk[k]++;
+		    }
+		    this.m_shadowAcc[k]=this.m_shadowEma[k].add_value(this.m_shadowOk[k]/this.m_shadowSeen);
+		    if (this.m_shadowPred!=null){
+			this.m_shadowPred[k]=y;
+		    }
+		}
+	    }
+
+	    if (this.m_shadowPred!=null){
+		for(int k=1;k<=n+g;k++){
+		    if (((k%step)==0) || (k==n+g)){
+			this.m_shadowTable[k].addResult(trueClass,
+							this.m_shadowPred[k],
+							this.m_shadowPred[n]);
+		    }
+		}
+	    }
+	}
+
+	// vote weight of a learner, as in _trainRange
+	protected double _learnerWeight(int Group, int idx){
+	    return this.m_ensemble.accuracy(Group,idx);
+	}
+
+	// _combineVotes on a weight from _learnerWeight
+	protected void _shadowAdd(double[] vote, double acc){
+	    int c=Math.min(vote.length,this.m_shadowSum.length);
+	    double sum=0;
+	    for(int i=0;i<c;i++){
+		sum+=vote[i];
+	    }
+	    if (sum>0.0){
+		double w=(acc>0) ? acc/sum : 1.0/sum;
+		for(int i=0;i<c;i++){
+		    this.m_shadowSum[i]+=vote[i]*w;
+		}
+	    }
+	}
+
+	// Signed resizeFactor steps to the smallest tracked size within
+	// shadowTolerance of the best one. Shrinks jump straight to it;
+	// sizes over s+grow are not evaluated, so grows go one step.
+	protected int _shadowResize(int s){
+	    if (this.m_shadowSeen<this.m_config.getShadowWarmup()){
+		return s_ELASTIC_OPERATION_KEEP;
+	    }
+	    if (this.m_shadowTable!=null){
+		return _shadowMcnemar(s);
+	    }
+
+	    int top=s+this.m_ensemble.groupSize(s_GGROW);
+	    int step=this.m_config.getShadowStep();
+	    double best=Double.NEGATIVE_INFINITY;
+	    for(int k=1;k<=top;k++){
+		if ((((k%step)==0) || (k==s) || (k==top)) && (this.m_shadowAcc[k]>best)){
+		    best=this.m_shadowAcc[k];
+		}
+	    }
+
+	    double tolerance=this.m_config.getShadowTolerance();
+	    int target=s;
+	    for(int k=1;k<=top;k++){
+		if ((((k%step)==0) || (k==s) || (k==top))
+		    && (this.m_shadowAcc[k]>=best-tolerance)){
+		    target=k;
+		    break;
+		}
+	    }
+
+	    if (target>s){
+		return s_ELASTIC_OPERATION_GROW;
+	    }
+	    return -((s-target)/this.m_config.getResizeFactor());
+	}
+
+	// -C McNemar, each tracked size against the current one: grow if
+	// the grown size is better and significant at growSignificance,
+	// else shrink to the smallest size not significantly worse at
+	// shrinkSignificance
+	protected int _shadowMcnemar(int s){
+	    int top=s+this.m_ensemble.groupSize(s_GGROW);
+	    int step=this.m_config.getShadowStep();
+
+	    ContingencyTable t=this.m_shadowTable[top];
+	    if ((top>s) && (t.accuracyCase()>t.accuracyControl())
+		&& t.mcnemar(this.m_shadowGrowTest)){
+		return s_ELASTIC_OPERATION_GROW;
+	    }
+
+	    for(int k=step;k<s;k+=step){
+		t=this.m_shadowTable[k];
+		if ((t.accuracyCase()>=t.accuracyControl())
+		    || !t.mcnemar(this.m_shadowShrinkTest)){
+		    return -((s-k)/this.m_config.getResizeFactor());
+		}
+	    }
+	    return s_ELASTIC_OPERATION_KEEP;
+	}
+
+	protected void _shadowReset(){
+	    for(int k=0;k<this.m_shadowEma.length;k++){
+		this.m_shadowEma[k].reset();
+		if (this.m_shadowTable!=null){
+		    this.m_shadowTable[k].reset();
+		}
+	    }
+	    Arrays.fill(this.m_shadowOk,0.0);
+	    Arrays.fill(this.m_shadowAcc,0.0);
+	    this.m_shadowSeen=0;
+	}
+
+	// resizeOperation: signed number of resizeFactor steps. Steps stop
+	// early at the ensemble size limits
 	void doOperation(int resizeOperation){
 
 	    int rs=this.m_config.getResizeFactor();
 	    //int rs=2;
-	    if (resizeOperation==s_ELASTIC_OPERATION_GROW){
-		int new_size=this.m_ensemble.grow(s_GFRONT,rs);
+	    if (resizeOperation>=s_ELASTIC_OPERATION_GROW){
+		for(int step=0;step<resizeOperation;step++){
+		    // a different grow learner per step (see _growSize,
+		    // more are pre-warmed in drift storms). Steps stop at
+		    // the first unscored one: swapped in, a fresh learner
+		    // would get the highest vote weight
+		    int g=this.m_ensemble.groupSize(s_GGROW);
+		    if ((step>0)
+			&& ((step>=g) || Double.isNaN(this.m_ensemble.accuracy(s_GGROW,step))
+			    || !_isWarm(step))){
+			break;
+		    }
+
+		    int new_size=this.m_ensemble.grow(s_GFRONT,rs);
+		    if (new_size<0){
+			break;
+		    }
 
-		if (new_size>=0){
 		    this.m_ensemble.swap(s_GFRONT,new_size-1,
-					 s_GGROW,0);
+					 s_GGROW,step);
+		    this.m_ensemble.learner(s_GGROW,step).createdOn=this.m_instancesSeen;
 		    //_resetGroup(s_GGROW);
 		    //this.m_elastic.reset();
 		    this.m_elastic.grow();
 		    System.out.println("  =>GROW");
-		    
 		}
 		
-	    }else if (resizeOperation==s_ELASTIC_OPERATION_SHRINK){
+	    }else if (resizeOperation<=s_ELASTIC_OPERATION_SHRINK){
 		//int new_size=this.m_ensemble.shrink(s_GFRONT,1);
 
-		this.m_ensemble.findMoveMin(s_GFRONT);
-		int size=this.m_ensemble.groupSize(s_GFRONT);
+		for(int step=0;step<-resizeOperation;step++){
+		    this.m_ensemble.findMoveMin(s_GFRONT);
+		    int size=this.m_ensemble.groupSize(s_GFRONT);
 
-		this.m_ensemble.swap(s_GFRONT,size-1,
-				     s_GGROW,0);
+		    this.m_ensemble.swap(s_GFRONT,size-1,
+					 s_GGROW,0);
 
-		this.m_ensemble.shrink(s_GFRONT,rs);
+		    this.m_ensemble.shrink(s_GFRONT,rs);
 
-		_resetGroup(s_GGROW);
-		this.m_elastic.shrink();
-		System.out.println("  =>SHRINK");
+		    _resetGroup(s_GGROW);
+		    this.m_elastic.shrink();
+		    System.out.println("  =>SHRINK");
 
+		    if (this.m_ensemble.groupSize(s_GFRONT)==size){
+			break;
+		    }
+		}
 	    }
 
 	}
@@ -2414,6 +4247,18 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    super(config,alloc);
 	}
 
+	// as _trainRange: accuracy over the one of the last learner of
+	// its range. The front is trained as [0,s-rs) and [s-rs,s)
+	@Override
+	protected double _learnerWeight(int Group, int idx){
+	    int e=this.m_ensemble.groupSize(Group);
+	    if ((Group==s_GFRONT) && (idx<e-this.m_config.getResizeFactor())){
+		e-=this.m_config.getResizeFactor();
+	    }
+	    return this.m_ensemble.accuracy(Group,idx)
+		/this.m_ensemble.accuracy(Group,e-1);
+	}
+
 	@Override
 	protected void _trainRange(Instance instance,
 				   int Group,int startIdx, int endIdx,
@@ -2428,18 +4273,23 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 	    for(int i=s;i<e;i++){
 		//System.out.print("[i:"+i+"] ");
     
-		ElasticBaseLearner l=this.m_ensemble.learner(Group,i);
-		acc_total=l.accuracy.get();
+		acc_total=this.m_ensemble.accuracy(Group,i);
 	    }
 
-
+	    if (_isParallelTraining(e-s)){
+		double[][] votes=_parallelTrain(instance,Group,s,e);
+		for(int i=s;i<e;i++){
+		    DoubleVector vote = new DoubleVector(votes[i-s]);
+		    _combineVotes(combinedVote, vote, this.m_ensemble.accuracy(Group,i)/acc_total);
+		}
+		return;
+	    }
 	    
 	    for(int i=s;i<e;i++){
 		//System.out.print("[i:"+i+"] ");
     
-		ElasticBaseLearner l=this.m_ensemble.learner(Group,i);
-		DoubleVector vote = new DoubleVector(_trainLearner(instance,l));
-		_combineVotes(combinedVote, vote, l.accuracy.get()/acc_total);
+		DoubleVector vote = new DoubleVector(_trainLearner(instance,Group,i));
+		_combineVotes(combinedVote, vote, this.m_ensemble.accuracy(Group,i)/acc_total);
 	    }
 	    //System.out.println("");
 
@@ -2464,11 +4314,30 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
     private static final int s_GFRONT=0;
     private static final int s_GCANDIDATE=1;
     private static final int s_GGROW=2;
+
+    // instances before a pre-warmed grow learner votes (drift storms)
+    private static final int s_WARM_INSTANCES=200;
+
+    // the memory governor does not lower -e below this
+    private static final int s_MIN_MEMORY_ESTIMATE_PERIOD=10000;
     
 
     private static final int s_ELASTIC_OPERATION_SHRINK=-1;
     private static final int s_ELASTIC_OPERATION_KEEP=0;
     private static final int s_ELASTIC_OPERATION_GROW=1;
+
+    private static final int s_METRIC_CUMULATIVE=0;
+    private static final int s_METRIC_WINDOW=1;
+    private static final int s_METRIC_FADING=2;
+    private static final int s_METRIC_ADWIN=3;
+    private static final int s_METRIC_KAPPA=4;
+
+    private static final int s_CONTROLLER_EMA=0;
+    private static final int s_CONTROLLER_MCNEMAR=1;
+    private static final int s_CONTROLLER_EMA_GOOD=2;
+
+    // slack for floating point summation order in anytime prediction
+    private static final double s_ANYTIME_EPSILON=1e-9;
     
     
     
@@ -2480,6 +4349,11 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 						      "The lambda parameter for bagging.",
 						      6.0, 1.0, Float.MAX_VALUE);
 
+    // -b
+    public IntOption candidateQueueOption = new IntOption("candidateQueue", 'b',
+							  "Train candidates on a background thread with this queue capacity (0: in place).",
+							  0, 0, Integer.MAX_VALUE);
+
     // -c
     public IntOption candidateSizeOption=new IntOption("candidateSize", 'c',
 						       "The number of candidate learners.",
@@ -2488,6 +4362,15 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 						       Integer.MAX_VALUE);
     
 
+    // -d
+    public FloatOption fadingFactorOption = new FloatOption("fadingFactor", 'd',
+							    "Fading factor for the Fading learner metric.",
+							    0.999, 0.0, 1.0);
+
+    // -e
+    public FlagOption anytimeOption = new FlagOption("anytimePrediction", 'e',
+						     "Stop voting once the remaining front learners can not change the prediction.");
+
     // -f
     public IntOption frontSizeOption=new IntOption("frontSize", 'f',
 						   "The number of front learners.",
@@ -2502,6 +4385,11 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 						      1,
 						      Integer.MAX_VALUE);
     
+    // -h
+    public IntOption parallelTrainingOption = new IntOption("parallelTraining", 'h',
+							    "Learner range above which training runs in parallel, costly trees first (0: never, always with a shared runtime).",
+							    0, 0, Integer.MAX_VALUE);
+
     // -i
     public IntOption elasticInterval=new IntOption("elasticInterval", 'i',
 						  "The number of instances before checking elastic interval.",
@@ -2511,6 +4399,16 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
     
     
+    // -j
+    public IntOption parallelScoringOption = new IntOption("parallelScoring", 'j',
+							   "Front size above which votes are computed in parallel (0: never).",
+							   0, 0, Integer.MAX_VALUE);
+
+    // -k
+    public IntOption topKOption = new IntOption("topK", 'k',
+						"Only the k most accurate front learners vote (0: all).",
+						0, 0, Integer.MAX_VALUE);
+
     // -l
     public ClassOption treeLearnerOption = new ClassOption("treeLearner", 'l',
 							   "Random Forest Tree.",
@@ -2518,12 +4416,61 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 							   "ARFHoeffdingTree -e 2000000 -g 50 -c 0.01");
 
     
+    // -m
+    public MultiChoiceOption learnerMetricOption = new MultiChoiceOption("learnerMetric", 'm',
+									 "Learner accuracy used for swap, selection and vote weighting (Kappa: votes keep the accuracy since last reset).",
+									 new String[]{"Cumulative", "Window", "Fading", "ADWIN", "Kappa"},
+									 new String[]{"Accuracy since last reset",
+										      "Accuracy over the last metricWindow instances",
+										      "Fading factor accuracy",
+										      "ADWIN estimated accuracy",
+										      "Cohen's kappa since last reset for swap and selection"},
+									 s_METRIC_CUMULATIVE);
+
+    // -n
+    public IntOption emaWindowOption = new IntOption("emaWindow", 'n',
+						     "Window of the resize EMAs, new value weight 1-exp(-1/emaWindow) (0: legacy weight exp(-1/2000), nearly no smoothing).",
+						     0, 0, Integer.MAX_VALUE);
+
+    // -o
+    public IntOption syncPeriodOption = new IntOption("syncPeriod", 'o',
+						      "Instances between swaps when candidates train in the background.",
+						      50, 1, Integer.MAX_VALUE);
+
+    // -p
+    public FlagOption postTrainDriftInputOption = new FlagOption("postTrainDriftInput", 'p',
+								 "Feed drift detectors the prediction after training (legacy, one more traversal per learner).");
+
+    // -q
+    public StringOption sizePenaltyOption = new StringOption("sizePenalty", 'q',
+							     "Grow penalty by front size, size:penalty pairs (i.e 30:0.0005,50:0.001).",
+							     "");
+
     // -s
     public IntOption maxSizeOption = new IntOption("maxSize", 's',
 						   "Maximum learners (front+candidate).",
 						   100, 20, Integer.MAX_VALUE);
 
-    
+    // -t
+    public IntOption anytimeDeadlineOption = new IntOption("anytimeDeadline", 't',
+							   "Anytime prediction deadline in nanoseconds (0: none).",
+							   0, 0, Integer.MAX_VALUE);
+
+    // -u
+    public IntOption scoringThreadsOption = new IntOption("scoringThreads", 'u',
+							  "Threads for parallel scoring and training (0: available processors).",
+							  0, 0, Integer.MAX_VALUE);
+
+    // -v
+    public IntOption maxStalenessOption = new IntOption("maxStaleness", 'v',
+							"Swap on candidate metrics up to this many instances old, background candidates only (0: every syncPeriod).",
+							0, 0, Integer.MAX_VALUE);
+
+    // -w
+    public IntOption metricWindowOption = new IntOption("metricWindow", 'w',
+							"Window size for the Window learner metric.",
+							1000, 1, Integer.MAX_VALUE);
+
     // -x
     public ClassOption driftDetectionMethodOption = new ClassOption("driftDetectionMethod", 'x',
 					        "Change detector for drifts and its parameters",
@@ -2539,6 +4486,100 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 							    "TODO",
 							    0.005, 0.0, Float.MAX_VALUE);
 
+    // -B
+    public IntOption memoryLimitOption = new IntOption("memoryLimit", 'B',
+						       "Estimated memory of all trees in MB: over it, leaves of candidate/grow trees and then front trees are deactivated (0: no limit). Needs -l GovernedARFHoeffdingTree, other trees can not be limited.",
+						       0, 0, Integer.MAX_VALUE);
+
+    // -C
+    public MultiChoiceOption elasticControllerOption = new MultiChoiceOption("elasticController", 'C',
+									     "Front resize controller.",
+									     new String[]{"EMA", "McNemar", "EMA_good"},
+									     new String[]{"EMA accuracy bands (-y, -z, -H, -K, -I)",
+											  "McNemar test on shrunk/grown vs default (-G, -L)",
+											  "EMA accuracy crossing"},
+									     s_CONTROLLER_EMA);
+
+    // -D
+    public IntOption candidateIntervalOption = new IntOption("candidateInterval", 'D',
+							     "Instances between candidate group resizes (0: fixed candidate group).",
+							     0, 0, Integer.MAX_VALUE);
+
+    // -E
+    public IntOption candidateMinSizeOption = new IntOption("candidateMinSize", 'E',
+							    "Minimum candidate learners when the candidate group is elastic.",
+							    2, 1, Integer.MAX_VALUE);
+
+    // -F
+    public IntOption driftBurstOption = new IntOption("driftBurst", 'F',
+						      "Front drifts within candidateInterval that grow the candidate group.",
+						      2, 1, Integer.MAX_VALUE);
+
+    // -G
+    public FloatOption growSignificanceOption = new FloatOption("growSignificance", 'G',
+								"McNemar: grow only if the shrunk ensemble is not different at this level.",
+								0.05, 0.0, 1.0);
+
+    // -H
+    public FloatOption resizeHysteresisOption = new FloatOption("resizeHysteresis", 'H',
+								"Extra gap needed to reverse the last grow/shrink.",
+								0.0, 0.0, Float.MAX_VALUE);
+
+    // -I
+    public FloatOption resizeIntegralGainOption = new FloatOption("resizeIntegralGain", 'I',
+								  "Resize steps per unit of accumulated accuracy gap (PI resize).",
+								  0.0, 0.0, Float.MAX_VALUE);
+
+    // -J
+    public IntOption driftWindowOption = new IntOption("driftWindow", 'J',
+						       "Instances over which learner resets are counted for drift storms (0: off).",
+						       0, 0, Integer.MAX_VALUE);
+
+    // -K
+    public FloatOption resizeGainOption = new FloatOption("resizeGain", 'K',
+							  "Resize steps per unit of accuracy gap over the band (0 and -I 0: one step).",
+							  0.0, 0.0, Float.MAX_VALUE);
+
+    // -L
+    public FloatOption shrinkSignificanceOption = new FloatOption("shrinkSignificance", 'L',
+								  "McNemar: shrink only if the grown ensemble is not different at this level.",
+								  0.05, 0.0, 1.0);
+
+    // -M
+    public IntOption maxResizeStepsOption = new IntOption("maxResizeSteps", 'M',
+							  "Maximum resizeFactor steps per check.",
+							  4, 1, Integer.MAX_VALUE);
+
+    // -N
+    public FloatOption stormFractionOption = new FloatOption("stormFraction", 'N',
+							     "Fraction of front and grow learners reset within driftWindow that is a drift storm.",
+							     0.2, 0.0, 1.0);
+
+    // -O
+    public IntOption memoryCheckPeriodOption = new IntOption("memoryCheckPeriod", 'O',
+							     "Instances between tree memory checks (see -B).",
+							     1000, 1, Integer.MAX_VALUE);
+
+    // -R
+    public IntOption resizeCooldownOption = new IntOption("resizeCooldown", 'R',
+							  "Instances without resizing after a grow/shrink.",
+							  0, 0, Integer.MAX_VALUE);
+
+    // -S
+    public IntOption shadowStepOption = new IntOption("shadowStep", 'S',
+						      "Evaluate every shadowStep-th front size and resize to the smallest good one (0: off). Replaces the controller: -C McNemar tests sizes at -G/-L, others use EMAs and -T; cooldown, hysteresis, size penalty and gains do not apply.",
+						      0, 0, Integer.MAX_VALUE);
+
+    // -T
+    public FloatOption shadowToleranceOption = new FloatOption("shadowTolerance", 'T',
+							       "Accuracy a shadow size may lose against the best one.",
+							       0.001, 0.0, 1.0);
+
+    // -U
+    public IntOption shadowWarmupOption = new IntOption("shadowWarmup", 'U',
+							"Instances evaluated by the shadow sizes before a resize.",
+							500, 1, Integer.MAX_VALUE);
+
     
 
     
@@ -2551,6 +4592,10 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
     protected ElasticPolicy m_elasticPolicy;
     protected boolean m_init;
 
+    // shared training threads (see setRuntime)
+    protected transient ElasticForestRuntime m_runtime;
+    protected int m_runtimeModel;
+
     
     // Methods
     /////////////////////////////////////////////////////////////////////////////////////
@@ -2564,9 +4609,13 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
     @Override
     public void resetLearningImpl() {
 
+	if (this.m_elasticPolicy!=null){
+	    this.m_elasticPolicy.reset();
+	}
 	this.m_learnerAllocator = new learnerAllocator(this.treeLearnerOption,
 						       this.driftDetectionMethodOption
 						       );
+	this.m_learnerAllocator.setPostTrainDriftInput(this.postTrainDriftInputOption.isSet());
 	this.m_init=false;
     }
     
@@ -2591,6 +4640,32 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
     }
 
     
+    // Learner training goes to a runtime shared with other models instead
+    // of threads of its own: every learner range above parallelTraining
+    // (all of them with the default 0). model: id from runtime.addModel
+    public void setRuntime(ElasticForestRuntime runtime, int model){
+	this.m_runtime=runtime;
+	this.m_runtimeModel=model;
+    }
+
+    // Prequential test-then-train on the same instance with a single
+    // traversal of the front learners. Equivalent to
+    //   votes=getVotesForInstance(instance); trainOnInstance(instance);
+    public double[] predictAndTrain(Instance instance) {
+
+	if (this.m_init==false){
+	    _initEnsemble(instance);
+	}
+
+	if (instance.weight() > 0.0){
+	    this.trainingWeightSeenByModel += instance.weight();
+	    return this.m_elasticPolicy.predictAndTrain(instance);
+	}
+
+	return this.m_elasticPolicy.getVotesForInstance(instance);
+    }
+
+    
     @Override
     public boolean isRandomizable() {
         return true;
@@ -2602,7 +4677,29 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
     @Override
     protected Measurement[] getModelMeasurementsImpl() {
-        return null;
+	if (this.m_init==false){
+	    return null;
+	}
+
+	GroupEnsemble en=this.m_elasticPolicy.getEnsemble();
+	List<Measurement> m=new ArrayList<Measurement>();
+	m.add(new Measurement("front learners",en.groupSize(s_GFRONT)));
+	m.add(new Measurement("total learners",en.size()));
+	if (this.m_config.getCandidateInterval()>0){
+	    m.add(new Measurement("candidate learners",en.groupSize(s_GCANDIDATE)));
+	}
+	if (this.m_config.getMemoryLimit()>0){
+	    ElasticPolicySwapOnly p=(ElasticPolicySwapOnly)this.m_elasticPolicy;
+	    m.add(new Measurement("tree bytes (estimate)",p._treeBytes()));
+	    m.add(new Measurement("memory limited trees",p.m_memoryLimited));
+	}
+	if ((this.m_config.getCandidateQueue()>0)
+	    && (this.m_config.getMaxStaleness()>0)){
+	    CandidateTrainer t=((ElasticPolicySwapOnly)this.m_elasticPolicy).m_candidateTrainer;
+	    m.add(new Measurement("stale swaps",(t==null) ? 0 : t.m_staleSwaps));
+	    m.add(new Measurement("stale swap misses",(t==null) ? 0 : t.m_staleMisses));
+	}
+	return m.toArray(new Measurement[m.size()]);
     }
 
     protected void _initEnsemble(Instance instance) {
@@ -2635,6 +4732,42 @@ public class ElasticRandomForest extends AbstractClassifier implements MultiClas
 
 	this.m_config.setShrinkThreshold(this.shrinkThresholsOption.getValue());
 	this.m_config.setGrowThreshold(this.growThresholsOption.getValue());
+	this.m_config.setEmaWindow(this.emaWindowOption.getValue());
+	this.m_config.setResizeHysteresis(this.resizeHysteresisOption.getValue());
+	this.m_config.setResizeCooldown(this.resizeCooldownOption.getValue());
+	this.m_config.setResizeGain(this.resizeGainOption.getValue());
+	this.m_config.setResizeIntegralGain(this.resizeIntegralGainOption.getValue());
+	this.m_config.setMaxResizeSteps(this.maxResizeStepsOption.getValue());
+	this.m_config.setSizePenalty(this.sizePenaltyOption.getValue());
+	this.m_config.setLearnerMetric(this.learnerMetricOption.getChosenIndex());
+	this.m_config.setMetricWindow(this.metricWindowOption.getValue());
+	this.m_config.setFadingFactor(this.fadingFactorOption.getValue());
+	this.m_config.setTopK(this.topKOption.getValue());
+	this.m_config.setAnytime(this.anytimeOption.isSet());
+	this.m_config.setAnytimeDeadline(this.anytimeDeadlineOption.getValue());
+	this.m_config.setParallelScoring(this.parallelScoringOption.getValue());
+	this.m_config.setScoringThreads(this.scoringThreadsOption.getValue());
+	this.m_config.setCandidateQueue(this.candidateQueueOption.getValue());
+	this.m_config.setSyncPeriod(this.syncPeriodOption.getValue());
+	this.m_config.setMaxStaleness(this.maxStalenessOption.getValue());
+	this.m_config.setParallelTraining(this.parallelTrainingOption.getValue());
+	this.m_config.setShadowStep(this.shadowStepOption.getValue());
+	this.m_config.setShadowTolerance(this.shadowToleranceOption.getValue());
+	this.m_config.setShadowWarmup(this.shadowWarmupOption.getValue());
+	this.m_config.setController(this.elasticControllerOption.getChosenIndex());
+	this.m_config.setGrowSignificance(this.growSignificanceOption.getValue());
+	this.m_config.setShrinkSignificance(this.shrinkSignificanceOption.getValue());
+	this.m_config.setCandidateInterval(this.candidateIntervalOption.getValue());
+	this.m_config.setCandidateMinSize(this.candidateMinSizeOption.getValue());
+	this.m_config.setDriftBurst(this.driftBurstOption.getValue());
+	this.m_config.setDriftWindow(this.driftWindowOption.getValue());
+	this.m_config.setStormFraction(this.stormFractionOption.getValue());
+	this.m_config.setMemoryLimit(this.memoryLimitOption.getValue());
+	if ((this.m_config.getMemoryLimit()>0)
+	    && !(getPreparedClassOption(this.treeLearnerOption) instanceof GovernedARFHoeffdingTree)){
+	    throw new IllegalArgumentException("memoryLimit (-B) needs -l GovernedARFHoeffdingTree, other trees can not be limited");
+	}
+	this.m_config.setMemoryCheckPeriod(this.memoryCheckPeriodOption.getValue());
 
 
 	
@@ -0,0 +1,136 @@
+/*
+ *    GovernedARFHoeffdingTree.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.trees;
+
+
+/*
+ * ARFHoeffdingTree whose memory can be limited from outside (see the
+ * ElasticRandomForest memory governor). Same tree until limitBytes is
+ * called.
+ *
+ * byteSize() is read from the node counters, no tree traversal. Leaf
+ * sizes are the tree estimates (estimateModelByteSizes) when the sizeofag
+ * agent is loaded, otherwise fixed per node estimates measured with the
+ * agent on ARF trees (~128 bytes per split node and active leaf).
+ *
+ * limitBytes hands the limit to the Hoeffding tree memory manager
+ * (maxByteSize, enforceTrackerLimit): the least promising leaves are
+ * deactivated, now and after every split. Without the agent the per
+ * node estimates are kept, so the manager keeps working.
+ */
+public class GovernedARFHoeffdingTree extends ARFHoeffdingTree {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final double s_SPLIT_NODE_BYTES=128;
+    public static final double s_ACTIVE_LEAF_BYTES=128;
+    public static final double s_INACTIVE_LEAF_BYTES=64;
+
+    // maxByteSize and memoryEstimatePeriod before the first limit
+    // (-1: not limited)
+    protected int m_maxByteSize=-1;
+    protected int m_memoryEstimatePeriod=-1;
+
+    @Override
+    public String getPurposeString() {
+	return "ARF Hoeffding Tree with an external memory limit.";
+    }
+
+    @Override
+    public void resetLearningImpl() {
+	if (this.m_maxByteSize>=0){
+	    this.maxByteSizeOption.setValue(this.m_maxByteSize);
+	    this.memoryEstimatePeriodOption.setValue(this.m_memoryEstimatePeriod);
+	    this.m_maxByteSize=-1;
+	    this.m_memoryEstimatePeriod=-1;
+	}
+	super.resetLearningImpl();
+    }
+
+    public boolean isLimited(){
+	return this.m_maxByteSize>=0;
+    }
+
+    protected double _activeLeafBytes(){
+	return (this.activeLeafByteSizeEstimate>0)
+	    ? this.activeLeafByteSizeEstimate
+	    : s_ACTIVE_LEAF_BYTES;
+    }
+
+    protected double _inactiveLeafBytes(){
+	return (this.inactiveLeafByteSizeEstimate>0)
+	    ? this.inactiveLeafByteSizeEstimate
+	    : s_INACTIVE_LEAF_BYTES;
+    }
+
+    protected double _overhead(){
+	double f=this.byteSizeEstimateOverheadFraction;
+	return ((f>0) && !Double.isInfinite(f)) ? f : 1.0;
+    }
+
+    public double byteSize(){
+	return this.decisionNodeCount*s_SPLIT_NODE_BYTES
+	    + (this.activeLeafNodeCount*_activeLeafBytes()
+	       + this.inactiveLeafNodeCount*_inactiveLeafBytes())*_overhead();
+    }
+
+    public int activeLeaves(){
+	return this.activeLeafNodeCount;
+    }
+
+    // Node counters of any Hoeffding tree (protected, same package).
+    // getModelMeasurements gives the same counts but also measures the
+    // model byte size, a reflective walk of the whole tree
+    public static int nodeCount(HoeffdingTree t){
+	return t.decisionNodeCount+t.activeLeafNodeCount+t.inactiveLeafNodeCount;
+    }
+
+    public static int activeLeafCount(HoeffdingTree t){
+	return t.activeLeafNodeCount;
+    }
+
+    // Leaves (active and inactive) get at most maxBytes minus the split
+    // nodes. Returns byteSize() after deactivating leaves
+    public double limitBytes(double maxBytes){
+	if (this.m_maxByteSize<0){
+	    this.m_maxByteSize=this.maxByteSizeOption.getValue();
+	    this.m_memoryEstimatePeriod=this.memoryEstimatePeriodOption.getValue();
+	}
+	_setEstimates();
+
+	double leaves=maxBytes - this.decisionNodeCount*s_SPLIT_NODE_BYTES;
+	this.maxByteSizeOption.setValue((int)Math.max(0,Math.min(Integer.MAX_VALUE,leaves)));
+	enforceTrackerLimit();
+	return byteSize();
+    }
+
+    // estimates read 0 when the sizeofag agent is not loaded
+    protected void _setEstimates(){
+	this.activeLeafByteSizeEstimate=_activeLeafBytes();
+	this.inactiveLeafByteSizeEstimate=_inactiveLeafBytes();
+	this.byteSizeEstimateOverheadFraction=_overhead();
+    }
+
+    @Override
+    public void estimateModelByteSizes() {
+	super.estimateModelByteSizes();
+	if (isLimited()){
+	    _setEstimates();
+	}
+    }
+}
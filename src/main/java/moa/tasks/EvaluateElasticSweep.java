@@ -0,0 +1,481 @@
+/*
+ *    EvaluateElasticSweep.java
+ *
+ *    @author Diego Marrón Vida
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.tasks;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.Classifier;
+import moa.classifiers.meta.ElasticRandomForest;
+import moa.core.Example;
+import moa.core.Measurement;
+import moa.core.ObjectRepository;
+import moa.core.TimingUtils;
+import moa.core.Utils;
+import moa.options.ClassOption;
+import moa.streams.ExampleStream;
+
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.text.DecimalFormat;
+
+
+/*
+ * Hyperparameter sweep for the elastic forests.
+ *
+ * The stream is parsed once into a shared read-only buffer and every
+ * configuration (ShrinkThreshold -y, GrowThreshold -z, elasticInterval -i,
+ * resizeFactor -g) is evaluated test-then-train over it on a bounded pool.
+ * Result is a compact table: accuracy, mean tree count, CPU time of the
+ * evaluating thread, wall time and p50/p99 per-instance latency
+ * (test+train wall time) per configuration. Learner threads (background
+ * candidates, scoring and training pools, shared runtime) only show in
+ * the wall time, which also includes waiting for the CPU when
+ * configurations run concurrently (-t).
+ *
+ * Example:
+ *  EvaluateElasticSweep -l meta.ElasticRandomForest
+ *                       -s (ArffFileStream -f datasets/elecNormNew.arff)
+ *                       -y 0.001,0.005 -z 0.0005,0.005 -t 4
+ */
+public class EvaluateElasticSweep extends ClassificationMainTask {
+
+    private static final long serialVersionUID = 1L;
+
+    protected static final int s_SEARCH_GRID=0;
+    protected static final int s_SEARCH_RANDOM=1;
+
+
+    /////////////////////////////////////////////////////////////////////////////////////
+    //
+    //// SWEEP CONFIGURATION
+    //
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    protected static class SweepConfig{
+
+	protected double m_shrinkThreshold;
+	protected double m_growThreshold;
+	protected int m_elasticInterval;
+	protected int m_resizeFactor;
+
+	// results
+	protected long m_correct;
+	protected long m_seen;
+	protected double m_frontAccum;
+	protected double m_totalAccum;
+	protected long m_samples;
+	protected long m_cpuTime;
+	protected long m_wallTime;
+	protected long[] m_latency;
+	protected String m_error;
+
+	SweepConfig(double shrinkThreshold, double growThreshold,
+		    int elasticInterval, int resizeFactor){
+	    this.m_shrinkThreshold=shrinkThreshold;
+	    this.m_growThreshold=growThreshold;
+	    this.m_elasticInterval=elasticInterval;
+	    this.m_resizeFactor=resizeFactor;
+	}
+
+	String getCLIOptions(){
+	    return " -y " + this.m_shrinkThreshold
+		+ " -z " + this.m_growThreshold
+		+ " -i " + this.m_elasticInterval
+		+ " -g " + this.m_resizeFactor;
+	}
+
+	double accuracy(){
+	    return (this.m_seen==0) ? 0 : (100.0*this.m_correct)/this.m_seen;
+	}
+
+	double meanFront(){
+	    return (this.m_samples==0) ? 0 : this.m_frontAccum/this.m_samples;
+	}
+
+	double meanTotal(){
+	    return (this.m_samples==0) ? 0 : this.m_totalAccum/this.m_samples;
+	}
+
+	// nearest rank percentile, in microseconds
+	double latency(double percentile){
+	    if ((this.m_latency==null) || (this.m_latency.length==0)){
+		return 0;
+	    }
+	    long[] sorted=Arrays.copyOf(this.m_latency,this.m_latency.length);
+	    Arrays.sort(sorted);
+	    int rank=(int)Math.ceil(percentile/100.0*sorted.length);
+	    return sorted[Math.max(0,rank-1)]/1000.0;
+	}
+    }
+
+
+    // Configurations
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    // -l
+    public ClassOption learnerOption = new ClassOption("learner", 'l',
+						       "Elastic learner to tune.",
+						       Classifier.class,
+						       "meta.ElasticRandomForest");
+
+    // -s
+    public ClassOption streamOption = new ClassOption("stream", 's',
+						      "Stream to learn from (parsed once).",
+						      ExampleStream.class,
+						      "ArffFileStream -f datasets/elecNormNew.arff");
+
+    // -i
+    public IntOption instanceLimitOption = new IntOption("instanceLimit", 'i',
+							 "Maximum number of instances to buffer, -1 for the whole stream.",
+							 -1, -1, Integer.MAX_VALUE);
+
+    // -y
+    public StringOption shrinkThresholdsOption = new StringOption("ShrinkThresholds", 'y',
+								  "Comma separated ShrinkThreshold values.",
+								  "0.001,0.005");
+
+    // -z
+    public StringOption growThresholdsOption = new StringOption("GrowThresholds", 'z',
+								"Comma separated GrowThreshold values.",
+								"0.0005,0.005");
+
+    // -n
+    public StringOption elasticIntervalsOption = new StringOption("elasticIntervals", 'n',
+								  "Comma separated elasticInterval values.",
+								  "5");
+
+    // -g
+    public StringOption resizeFactorsOption = new StringOption("resizeFactors", 'g',
+							       "Comma separated resizeFactor values.",
+							       "1");
+
+    // -m
+    public MultiChoiceOption searchModeOption = new MultiChoiceOption("searchMode", 'm',
+								      "Grid: every combination. Random: sample within [min,max] of each list.",
+								      new String[]{"Grid", "Random"},
+								      new String[]{"Cartesian product of all values",
+										   "Uniform random sampling within each range"},
+								      s_SEARCH_GRID);
+
+    // -k
+    public IntOption randomConfigurationsOption = new IntOption("randomConfigurations", 'k',
+								"Number of configurations for random search.",
+								10, 1, Integer.MAX_VALUE);
+
+    // -r
+    public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
+						      "Seed for random search.",
+						      1);
+
+    // -t
+    public IntOption threadsOption = new IntOption("threads", 't',
+						   "Concurrent configurations, 0 to use all available processors.",
+						   0, 0, Integer.MAX_VALUE);
+
+    // -f
+    public IntOption sampleFrequencyOption = new IntOption("sampleFrequency", 'f',
+							   "Instances between tree count samples.",
+							   1000, 1, Integer.MAX_VALUE);
+
+
+    // Methods
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public String getPurposeString() {
+        return "Evaluates a grid or random set of elastic configurations over a single parsed stream.";
+    }
+
+    @Override
+    public Class<?> getTaskResultType() {
+        return String.class;
+    }
+
+
+    protected double[] _parseDoubles(StringOption opt){
+	String[] v=opt.getValue().split(",");
+	double[] r=new double[v.length];
+	for(int i=0;i<v.length;i++){
+	    r[i]=Double.parseDouble(v[i].trim());
+	}
+	return r;
+    }
+
+    protected int[] _parseInts(StringOption opt){
+	String[] v=opt.getValue().split(",");
+	int[] r=new int[v.length];
+	for(int i=0;i<v.length;i++){
+	    r[i]=Integer.parseInt(v[i].trim());
+	}
+	return r;
+    }
+
+
+    protected List<SweepConfig> _gridConfigs(double[] ys, double[] zs,
+					     int[] is, int[] gs){
+	List<SweepConfig> configs=new ArrayList<SweepConfig>();
+	for(double y : ys){
+	    for(double z : zs){
+		for(int i : is){
+		    for(int g : gs){
+			configs.add(new SweepConfig(y,z,i,g));
+		    }
+		}
+	    }
+	}
+	return configs;
+    }
+
+
+    protected List<SweepConfig> _randomConfigs(double[] ys, double[] zs,
+					       int[] is, int[] gs){
+	Random rnd=new Random(this.randomSeedOption.getValue());
+	int k=this.randomConfigurationsOption.getValue();
+
+	List<SweepConfig> configs=new ArrayList<SweepConfig>();
+	for(int n=0;n<k;n++){
+	    configs.add(new SweepConfig(_sample(rnd,ys),
+					_sample(rnd,zs),
+					(int)Math.round(_sample(rnd,is)),
+					(int)Math.round(_sample(rnd,gs))));
+	}
+	return configs;
+    }
+
+    protected double _sample(Random rnd, double[] values){
+	double min=values[0];
+	double max=values[0];
+	for(double v : values){
+	    min=Math.min(min,v);
+	    max=Math.max(max,v);
+	}
+	return min + rnd.nextDouble()*(max-min);
+    }
+
+    protected double _sample(Random rnd, int[] values){
+	double[] d=new double[values.length];
+	for(int i=0;i<values.length;i++){
+	    d[i]=values[i];
+	}
+	return _sample(rnd,d);
+    }
+
+
+    // Parse the stream once. Instances are shared read-only by all
+    // configurations
+    protected Instance[] _bufferStream(TaskMonitor monitor,
+				       ExampleStream<Example<Instance>> stream){
+
+	int limit=this.instanceLimitOption.getValue();
+	ArrayList<Instance> buffer=new ArrayList<Instance>();
+	while (stream.hasMoreInstances()
+	       && ((limit<0) || (buffer.size()<limit))){
+	    Example<Instance> ex=stream.nextInstance();
+	    buffer.add(ex.getData());
+
+	    if ((buffer.size() % INSTANCES_BETWEEN_MONITOR_UPDATES)==0){
+		if (monitor.taskShouldAbort()){
+		    return null;
+		}
+		monitor.setCurrentActivityDescription("Buffering stream: "
+						      + buffer.size()
+						      + " instances");
+	    }
+	}
+	return buffer.toArray(new Instance[buffer.size()]);
+    }
+
+
+    protected void _evaluate(SweepConfig config,
+			     String learnerCLI,
+			     InstancesHeader header,
+			     Instance[] buffer){
+
+	long start=TimingUtils.getNanoCPUTimeOfCurrentThread();
+	long wallStart=System.nanoTime();
+
+	Classifier learner;
+	try{
+	    learner=(Classifier)ClassOption.cliStringToObject(learnerCLI
+							      + config.getCLIOptions(),
+							      Classifier.class,
+							      null);
+	}catch(Exception e){
+	    config.m_error=e.getMessage();
+	    return;
+	}
+	learner.prepareForUse();
+	learner.setModelContext(header);
+
+	int freq=this.sampleFrequencyOption.getValue();
+	config.m_latency=new long[buffer.length];
+	for(int n=0;n<buffer.length;n++){
+	    // Learners may change the instance (i.e weight) during
+	    // training, so every configuration works on its own copy
+	    Instance instance=buffer[n].copy();
+
+	    int trueClass=(int)instance.classValue();
+	    double[] votes;
+	    long t0=System.nanoTime();
+	    if (learner instanceof ElasticRandomForest){
+		votes=((ElasticRandomForest)learner).predictAndTrain(instance);
+	    }else{
+		votes=learner.getVotesForInstance(instance);
+		learner.trainOnInstance(instance);
+	    }
+	    config.m_latency[n]=System.nanoTime()-t0;
+	    
+	    if (Utils.maxIndex(votes)==trueClass){
+		config.m_correct++;
+	    }
+	    config.m_seen++;
+
+	    if (((n+1) % freq)==0){
+		Measurement[] m=learner.getModelMeasurements();
+		Measurement front=Measurement.getMeasurementNamed("front learners",m);
+		Measurement total=Measurement.getMeasurementNamed("total learners",m);
+		if (front!=null && total!=null){
+		    config.m_frontAccum+=front.getValue();
+		    config.m_totalAccum+=total.getValue();
+		    config.m_samples++;
+		}
+	    }
+	}
+
+	config.m_cpuTime=TimingUtils.getNanoCPUTimeOfCurrentThread()-start;
+	config.m_wallTime=System.nanoTime()-wallStart;
+
+	// stops the learner threads (background candidates, scoring
+	// pool), they keep the whole forest alive
+	learner.resetLearning();
+    }
+
+
+    protected String _table(List<SweepConfig> configs){
+	DecimalFormat nf4 = new DecimalFormat("0.0000");
+	DecimalFormat nf2 = new DecimalFormat("0.00");
+
+	StringBuilder sb=new StringBuilder();
+	sb.append("#\tShrinkThr\tGrowThr\tInterval\tResize\tAccuracy\tMeanFront\tMeanTotal\tThreadCPU(s)\tWall(s)\tp50(us)\tp99(us)\n");
+	int n=0;
+	for(SweepConfig c : configs){
+	    sb.append(n++).append('\t')
+		.append(c.m_shrinkThreshold).append('\t')
+		.append(c.m_growThreshold).append('\t')
+		.append(c.m_elasticInterval).append('\t')
+		.append(c.m_resizeFactor).append('\t');
+	    if (c.m_error!=null){
+		sb.append("ERROR: ").append(c.m_error).append('\n');
+		continue;
+	    }
+	    sb.append(nf4.format(c.accuracy())).append('\t')
+		.append(nf2.format(c.meanFront())).append('\t')
+		.append(nf2.format(c.meanTotal())).append('\t')
+		.append(nf2.format(TimingUtils.nanoTimeToSeconds(c.m_cpuTime))).append('\t')
+		.append(nf2.format(TimingUtils.nanoTimeToSeconds(c.m_wallTime))).append('\t')
+		.append(nf2.format(c.latency(50))).append('\t')
+		.append(nf2.format(c.latency(99))).append('\n');
+	}
+	return sb.toString();
+    }
+
+
+    @Override
+    protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+
+	TimingUtils.enablePreciseTiming();
+
+	@SuppressWarnings("unchecked")
+	ExampleStream<Example<Instance>> stream=
+	    (ExampleStream<Example<Instance>>)getPreparedClassOption(this.streamOption);
+	final InstancesHeader header=stream.getHeader();
+
+	monitor.setCurrentActivity("Buffering stream...", -1.0);
+	final Instance[] buffer=_bufferStream(monitor,stream);
+	if (buffer==null){
+	    return null;
+	}
+
+	double[] ys=_parseDoubles(this.shrinkThresholdsOption);
+	double[] zs=_parseDoubles(this.growThresholdsOption);
+	int[] is=_parseInts(this.elasticIntervalsOption);
+	int[] gs=_parseInts(this.resizeFactorsOption);
+
+	List<SweepConfig> configs=
+	    (this.searchModeOption.getChosenIndex()==s_SEARCH_RANDOM)
+	    ? _randomConfigs(ys,zs,is,gs)
+	    : _gridConfigs(ys,zs,is,gs);
+
+	int threads=this.threadsOption.getValue();
+	if (threads<=0){
+	    threads=Runtime.getRuntime().availableProcessors();
+	}
+	threads=Math.min(threads,configs.size());
+
+	final String learnerCLI=this.learnerOption.getValueAsCLIString();
+
+	monitor.setCurrentActivity("Evaluating " + configs.size()
+				   + " configurations on " + threads + " threads...",
+				   -1.0);
+
+	ExecutorService pool=Executors.newFixedThreadPool(threads);
+	List<Future<SweepConfig>> pending=new ArrayList<Future<SweepConfig>>();
+	for(final SweepConfig c : configs){
+	    pending.add(pool.submit(new Callable<SweepConfig>(){
+		    @Override
+		    public SweepConfig call(){
+			_evaluate(c,learnerCLI,header,buffer);
+			return c;
+		    }
+		}));
+	}
+
+	try{
+	    int done=0;
+	    for(Future<SweepConfig> f : pending){
+		f.get();
+		done++;
+		monitor.setCurrentActivityFractionComplete((double)done/configs.size());
+		if (monitor.taskShouldAbort()){
+		    pool.shutdownNow();
+		    return null;
+		}
+	    }
+	}catch(Exception e){
+	    throw new RuntimeException(e);
+	}finally{
+	    pool.shutdown();
+	}
+
+	return _table(configs);
+    }
+
+}
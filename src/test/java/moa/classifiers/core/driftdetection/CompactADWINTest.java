@@ -0,0 +1,162 @@
+/*
+ *    CompactADWINTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.core.driftdetection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/*
+ * CompactADWIN against moa's ADWIN: same change decisions, width,
+ * total and variance on random and drifting streams, one value at a
+ * time and in batches that divide the check clock.
+ */
+public class CompactADWINTest {
+
+    protected static final double s_DELTA=0.002;
+    protected static final int s_LENGTH=20000;
+
+    // 0/1 errors, error rate jumps at 1/4 and 3/4 and drifts in between
+    protected static double[] _errorStream(long seed){
+	Random rnd=new Random(seed);
+	double[] values=new double[s_LENGTH];
+	for(int i=0;i<s_LENGTH;i++){
+	    double p;
+	    if (i<s_LENGTH/4){
+		p=0.1;
+	    } else if (i<3*s_LENGTH/4){
+		p=0.4 + 0.4*(i-s_LENGTH/4)/(s_LENGTH/2);
+	    } else {
+		p=0.2;
+	    }
+	    values[i]=(rnd.nextDouble()<p)?1:0;
+	}
+	return values;
+    }
+
+    // gaussian values, mean shifts every s_LENGTH/5
+    protected static double[] _gaussianStream(long seed){
+	Random rnd=new Random(seed);
+	double[] values=new double[s_LENGTH];
+	for(int i=0;i<s_LENGTH;i++){
+	    double mean=(i/(s_LENGTH/5))%2==0?0.3:0.7;
+	    values[i]=mean + 0.1*rnd.nextGaussian();
+	}
+	return values;
+    }
+
+    // plain random values, no drift
+    protected static double[] _uniformStream(long seed){
+	Random rnd=new Random(seed);
+	double[] values=new double[s_LENGTH];
+	for(int i=0;i<s_LENGTH;i++){
+	    values[i]=rnd.nextDouble();
+	}
+	return values;
+    }
+
+    protected static void _assertSame(String where, ADWIN adwin, CompactADWIN compact){
+	assertEquals(where+" width",adwin.getWidth(),compact.getWidth());
+	assertEquals(where+" total",adwin.getTotal(),compact.getTotal(),0.0);
+	assertEquals(where+" variance",adwin.getVariance(),compact.getVariance(),0.0);
+    }
+
+    // returns the number of changes
+    protected static int _compare(double[] values){
+	ADWIN adwin=new ADWIN(s_DELTA);
+	CompactADWIN compact=new CompactADWIN(s_DELTA);
+	int changes=0;
+	for(int i=0;i<values.length;i++){
+	    boolean expected=adwin.setInput(values[i]);
+	    assertEquals("change at "+i,expected,compact.setInput(values[i]));
+	    _assertSame("at "+i,adwin,compact);
+	    if (expected){
+		changes++;
+	    }
+	}
+	return changes;
+    }
+
+    protected static int _compareBatches(double[] values, int batch){
+	ADWIN adwin=new ADWIN(s_DELTA);
+	CompactADWIN compact=new CompactADWIN(s_DELTA);
+	double[] buffer=new double[batch];
+	int changes=0;
+	for(int i=0;i+batch<=values.length;i+=batch){
+	    boolean expected=false;
+	    for(int k=0;k<batch;k++){
+		expected|=adwin.setInput(values[i+k]);
+		buffer[k]=values[i+k];
+	    }
+	    String where="batch "+batch+" at "+i;
+	    assertEquals(where+" change",expected,compact.setInputs(buffer,batch));
+	    _assertSame(where,adwin,compact);
+	    if (expected){
+		changes++;
+	    }
+	}
+	return changes;
+    }
+
+    @Test
+    public void testUniformStream(){
+	_compare(_uniformStream(1));
+    }
+
+    @Test
+    public void testErrorStream(){
+	assertTrue("drift not detected",_compare(_errorStream(2))>0);
+    }
+
+    @Test
+    public void testGaussianStream(){
+	assertTrue("drift not detected",_compare(_gaussianStream(3))>0);
+    }
+
+    @Test
+    public void testReset(){
+	CompactADWIN compact=new CompactADWIN(s_DELTA);
+	double[] values=_errorStream(7);
+	for(int i=0;i<values.length;i++){
+	    compact.setInput(values[i]);
+	}
+	compact.reset();
+
+	// same as a new window
+	ADWIN adwin=new ADWIN(s_DELTA);
+	values=_gaussianStream(8);
+	for(int i=0;i<values.length;i++){
+	    assertEquals("change at "+i,adwin.setInput(values[i]),compact.setInput(values[i]));
+	    _assertSame("at "+i,adwin,compact);
+	}
+    }
+
+    @Test
+    public void testBatches(){
+	int[] batches={1,2,32};
+	for(int batch : batches){
+	    _compareBatches(_uniformStream(4),batch);
+	    assertTrue("drift not detected",_compareBatches(_errorStream(5),batch)>0);
+	    assertTrue("drift not detected",_compareBatches(_gaussianStream(6),batch)>0);
+	}
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *    ElasticForestRuntimeTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+
+/*
+ * Start-time fair queue order of ElasticForestRuntime. One worker is
+ * held busy while two models queue unit cost tasks, then the run order
+ * is checked: while both are backlogged, tasks run in proportion to the
+ * model weights.
+ */
+public class ElasticForestRuntimeTest {
+
+    protected static final int s_TASKS=30;
+
+    protected ElasticForestRuntime m_runtime;
+    protected List<Integer> m_order;
+
+    protected Runnable _task(final int model){
+	return new Runnable(){
+		@Override
+		public void run(){
+		    synchronized(m_order){
+			m_order.add(model);
+		    }
+		}
+	    };
+    }
+
+    protected Thread _submit(final int model, final Runnable[] work){
+	final double[] cost=new double[work.length];
+	for(int i=0;i<cost.length;i++){
+	    cost[i]=1.0;
+	}
+	Thread t=new Thread(new Runnable(){
+		@Override
+		public void run(){
+		    m_runtime.execute(model,work,cost);
+		}
+	    });
+	t.start();
+	return t;
+    }
+
+    protected Thread _submit(int model){
+	Runnable[] work=new Runnable[s_TASKS];
+	for(int i=0;i<s_TASKS;i++){
+	    work[i]=_task(model);
+	}
+	return _submit(model,work);
+    }
+
+    protected void _awaitQueued(int n) throws InterruptedException{
+	long end=System.currentTimeMillis()+10000;
+	while (true){
+	    synchronized(this.m_runtime){
+		if (this.m_runtime.m_queue.size()>=n){
+		    return;
+		}
+	    }
+	    if (System.currentTimeMillis()>end){
+		fail("tasks were not queued");
+	    }
+	    Thread.sleep(1);
+	}
+    }
+
+    // Runs s_TASKS tasks of two models with the given weights, queued
+    // together. Returns how many tasks of each model ran in the first n
+    protected int[] _share(double w0, double w1, int n) throws InterruptedException{
+	this.m_runtime=new ElasticForestRuntime(1);
+	this.m_order=new ArrayList<Integer>();
+	int blocker=this.m_runtime.addModel(1.0);
+	int m0=this.m_runtime.addModel(w0);
+	int m1=this.m_runtime.addModel(w1);
+
+	// keep the only worker busy until both models are queued
+	final CountDownLatch started=new CountDownLatch(1);
+	final CountDownLatch release=new CountDownLatch(1);
+	Thread tb=_submit(blocker,new Runnable[]{new Runnable(){
+		@Override
+		public void run(){
+		    started.countDown();
+		    try{
+			release.await();
+		    } catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		    }
+		}
+	    }});
+	started.await();
+	Thread t0=_submit(m0);
+	_awaitQueued(s_TASKS);
+	Thread t1=_submit(m1);
+	_awaitQueued(2*s_TASKS);
+	release.countDown();
+
+	tb.join();
+	t0.join();
+	t1.join();
+	this.m_runtime.shutdown();
+
+	assertEquals(2*s_TASKS,this.m_order.size());
+	int[] count=new int[2];
+	for(int i=0;i<n;i++){
+	    count[(this.m_order.get(i)==m0)?0:1]++;
+	}
+	return count;
+    }
+
+    @Test
+    public void testEqualWeights() throws InterruptedException{
+	// both backlogged for the whole run
+	int[] count=_share(1.0,1.0,2*s_TASKS);
+	assertEquals(s_TASKS,count[0]);
+	assertEquals(s_TASKS,count[1]);
+
+	count=_share(1.0,1.0,20);
+	assertEquals(10,count[0]);
+	assertEquals(10,count[1]);
+    }
+
+    @Test
+    public void testWeightedShare() throws InterruptedException{
+	// model 1 start tags 0,1/3,..,29/3: it finishes after model 0 ran
+	// the tasks with start tags 0..9, a 3:1 share
+	int[] count=_share(1.0,3.0,40);
+	assertEquals(10,count[0]);
+	assertEquals(30,count[1]);
+
+	count=_share(1.0,3.0,20);
+	assertEquals(5,count[0]);
+	assertEquals(15,count[1]);
+    }
+
+    @Test
+    public void testNonPositiveWeight(){
+	ElasticForestRuntime runtime=new ElasticForestRuntime(1);
+	try{
+	    runtime.addModel(0.0);
+	    fail("weight 0 accepted");
+	} catch (IllegalArgumentException e){
+	    // expected
+	} finally {
+	    runtime.shutdown();
+	}
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *    GroupEnsembleTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/*
+ * GroupEnsemble.selectTop against a full sort of the group metric.
+ * Only the values are compared: equal metrics may come in any order.
+ */
+public class GroupEnsembleTest {
+
+    protected static final int s_MAX_SIZE=40;
+
+    // metric read from an array, one group
+    protected static class ArrayMetric implements ElasticRandomForest.Metric{
+	protected double[] m_values;
+
+	public double getMetric(ElasticRandomForest.GroupEnsemble en, int Group, int idx){
+	    return this.m_values[idx];
+	}
+
+	public void initGroup(int Group,int maxElements){}
+	public void reset(int Group,int idx){}
+	public void swap(int Group1, int Idx1, int Group2, int Idx2){}
+	public void add(int Group,int idx,int trueClass,int predictedClass){}
+    }
+
+    protected ArrayMetric m_metric=new ArrayMetric();
+    protected ElasticRandomForest.GroupEnsemble m_ensemble;
+
+    protected void _setValues(double[] values){
+	ElasticRandomForest forest=new ElasticRandomForest();
+	this.m_ensemble=forest.new GroupEnsemble(1,s_MAX_SIZE,null,null,this.m_metric);
+	// selectTop only reads the group size and the metric
+	this.m_ensemble.m_groupCurrentElements[0]=values.length;
+	this.m_metric.m_values=values;
+    }
+
+    // NaN ranks last, as in selectTop
+    protected static double _rank(double v){
+	return Double.isNaN(v)?Double.NEGATIVE_INFINITY:v;
+    }
+
+    protected void _assertTop(double[] values, int k){
+	_setValues(values);
+	int[] out=new int[s_MAX_SIZE];
+	int n=this.m_ensemble.selectTop(0,k,out);
+	String where=Arrays.toString(values)+" k "+k;
+	assertEquals(where,Math.max(0,Math.min(k,values.length)),n);
+
+	double[] sorted=new double[values.length];
+	for(int i=0;i<values.length;i++){
+	    sorted[i]=_rank(values[i]);
+	}
+	Arrays.sort(sorted);
+
+	boolean[] seen=new boolean[values.length];
+	for(int i=0;i<n;i++){
+	    int idx=out[i];
+	    assertTrue(where+" index "+idx,(idx>=0) && (idx<values.length));
+	    assertFalse(where+" repeated index "+idx,seen[idx]);
+	    seen[idx]=true;
+	    assertTrue(where+" position "+i,sorted[values.length-1-i]==_rank(values[idx]));
+	}
+    }
+
+    @Test
+    public void testSingle(){
+	_assertTop(new double[]{0.5},1);
+	_assertTop(new double[]{0.5},0);
+    }
+
+    @Test
+    public void testTies(){
+	double[] values={0.5,0.7,0.5,0.7,0.2,0.7,0.5};
+	for(int k=0;k<=values.length+2;k++){
+	    _assertTop(values,k);
+	}
+	double[] equal={0.3,0.3,0.3,0.3,0.3};
+	for(int k=0;k<=equal.length+2;k++){
+	    _assertTop(equal,k);
+	}
+    }
+
+    @Test
+    public void testNaN(){
+	double[] values={Double.NaN,0.4,Double.NaN,0.9,0.1};
+	for(int k=0;k<=values.length+1;k++){
+	    _assertTop(values,k);
+	}
+    }
+
+    @Test
+    public void testRandom(){
+	Random rnd=new Random(7);
+	for(int run=0;run<500;run++){
+	    int s=1+rnd.nextInt(s_MAX_SIZE);
+	    double[] values=new double[s];
+	    for(int i=0;i<s;i++){
+		// few distinct values so ties are common
+		values[i]=rnd.nextInt(8)/8.0;
+	    }
+	    _assertTop(values,rnd.nextInt(s+3));
+	    _assertTop(values,s);
+	}
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *    McnemarTestTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/*
+ * ElasticRandomForest.McnemarTest against the two sided binomial mid-p
+ * table for n=1..25 discordant pairs and the Edwards corrected
+ * chi-square statistic above.
+ */
+public class McnemarTestTest {
+
+    // largest min(b,c) with mid-p <= alpha, n=1..25 (-1: never)
+    protected static final int[] s_CRITICAL_05={
+	-1, -1, -1, -1,  0,  0,  0,  1,  1,  1,  2,  2,  2,
+	 3,  3,  4,  4,  4,  5,  5,  5,  6,  6,  7,  7
+    };
+    protected static final int[] s_CRITICAL_01={
+	-1, -1, -1, -1, -1, -1,  0,  0,  0,  0,  1,  1,  1,
+	 2,  2,  2,  3,  3,  3,  4,  4,  4,  5,  5,  6
+    };
+
+    protected static ElasticRandomForest.McnemarTest _test(double significance){
+	ElasticRandomForest forest=new ElasticRandomForest();
+	return forest.new McnemarTest(significance);
+    }
+
+    protected static void _assertTable(double significance, int[] critical){
+	ElasticRandomForest.McnemarTest test=_test(significance);
+	for(int n=1;n<=critical.length;n++){
+	    for(int k=0;2*k<=n;k++){
+		boolean expected=(k<=critical[n-1]);
+		String where="alpha "+significance+" n "+n+" k "+k;
+		assertEquals(where,expected,test.significant(k,n-k));
+		assertEquals(where,expected,test.significant(n-k,k));
+	    }
+	}
+    }
+
+    @Test
+    public void testExactTable05(){
+	_assertTable(0.05,s_CRITICAL_05);
+    }
+
+    @Test
+    public void testExactTable01(){
+	_assertTable(0.01,s_CRITICAL_01);
+    }
+
+    @Test
+    public void testNoDiscordantPairs(){
+	assertFalse(_test(0.05).significant(0,0));
+    }
+
+    @Test
+    public void testEdwardsCorrection(){
+	ElasticRandomForest.McnemarTest test=_test(0.05);
+	// (|19-8|-1)^2/27=3.70 < 3.84, a 0.5 correction would give 4.08
+	assertFalse(test.significant(19,8));
+	assertFalse(test.significant(8,19));
+	// (|20-7|-1)^2/27=5.33
+	assertTrue(test.significant(20,7));
+	assertTrue(test.significant(7,20));
+
+	test=_test(0.01);
+	// 5.33 < 6.63, (|21-6|-1)^2/27=7.26
+	assertFalse(test.significant(20,7));
+	assertTrue(test.significant(21,6));
+    }
+}